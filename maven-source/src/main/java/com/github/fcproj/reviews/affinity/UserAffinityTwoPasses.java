@@ -2,6 +2,7 @@ package com.github.fcproj.reviews.affinity;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,7 +20,12 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.cache.Fingerprint;
+import com.github.fcproj.reviews.cache.ResultCache;
 import com.github.fcproj.reviews.domain.CoupleWritable;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+import com.github.fcproj.reviews.store.IndexedResultOutputFormat;
 
 /**
  * Given Amazon Fine Food Review CSV files: computes users with same preferences. Thus, users who gave score >=4
@@ -45,6 +51,8 @@ public class UserAffinityTwoPasses {
 
 	private static final int MIN_SCORE = 4;
 	private static final int MIN_PRODUCTS = 3;
+	public static final String MIN_SCORE_KEY = "reviews.affinity.min.score";//to change MIN_SCORE
+	public static final String MIN_PRODUCTS_KEY = "reviews.affinity.min.products";//to change MIN_PRODUCTS
 
 	/** ***************************************************************************************
 	 * Returns a productid with the userid of the user who gave score >= MIN_SCORE
@@ -62,6 +70,14 @@ public class UserAffinityTwoPasses {
 		//garbage collection
 		private static Text PRODUCTID = new Text();
 		private static Text USERID = new Text();
+		private TimeRange range;
+		private int minScore;
+
+		@Override
+		protected void setup(Context ctx) {
+			range = TimeRange.get(ctx.getConfiguration());
+			minScore = ctx.getConfiguration().getInt(MIN_SCORE_KEY, MIN_SCORE);
+		}
 
 		@Override
 		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
@@ -72,7 +88,9 @@ public class UserAffinityTwoPasses {
 					String userID = cols[AmazonFoodReviewsColumns.USER_ID];
 					String prodID = cols[AmazonFoodReviewsColumns.PROD_ID];
 					int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
-					if(prodID!=null && userID!=null && score>=MIN_SCORE){
+					//the time is parsed only if rows must be filtered
+					boolean inRange = !range.isBounded() || range.contains(Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]));
+					if(prodID!=null && userID!=null && score>=minScore && inRange){
 						PRODUCTID.set(prodID);
 						USERID.set(userID);
 						ctx.write(PRODUCTID, USERID);
@@ -150,6 +168,12 @@ public class UserAffinityTwoPasses {
 	 * ***************************************************************************************/
 	public static class Reducer2 extends Reducer<CoupleWritable,Text,CoupleWritable,Text> {
 		private Text LIST_PRODUCTS = new Text();
+		private int minProducts;
+
+		@Override
+		protected void setup(Context ctx) {
+			minProducts = ctx.getConfiguration().getInt(MIN_PRODUCTS_KEY, MIN_PRODUCTS);
+		}
 
 		//compute the ordered queue of TOP_K element for each userid
 		@Override
@@ -162,7 +186,7 @@ public class UserAffinityTwoPasses {
 			//in addition, tmp cannot be defined as class variable for the same reason, we keep a reference in a queue so we need a new object
 			for(Text prodID: values)
 				tmpProducts.add(new Text(prodID.toString()));
-			if(tmpProducts.size()>=MIN_PRODUCTS){
+			if(tmpProducts.size()>=minProducts){
 				String productsTabDel = "";
 				for(Text prodID: tmpProducts)
 					productsTabDel +=prodID+"\t";
@@ -184,15 +208,22 @@ public class UserAffinityTwoPasses {
 		long start=System.currentTimeMillis();
 
 		Configuration conf = new Configuration();
-		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
-		if (otherArgs.length != 2) {
-			System.err.println("Usage: UserAffinityTwoPassesv <directory-in> <directory-out>");
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		if (range==null || otherArgs.size() != 2) {
+			System.err.println("Usage: UserAffinityTwoPasses [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
 			System.exit(2);
 		}
 		
-		Path input = new Path(args[0]);
-		Path temp1 = new Path("temp");
-		Path output = new Path(args[1]);
+		Path input = new Path(otherArgs.get(0));
+		Path output = new Path(otherArgs.get(1));
+		ResultCache cache = new ResultCache(conf);
 		
 		Job job1 = Job.getInstance(conf);
 		job1.setJobName("UserAffinityTwoPasses-pass-1");
@@ -205,12 +236,33 @@ public class UserAffinityTwoPasses {
 		job1.setMapOutputValueClass(Text.class);
 		job1.setOutputKeyClass(CoupleWritable.class);
 		job1.setOutputValueClass(Text.class);
-		FileInputFormat.setInputPaths(job1, input);
-		FileOutputFormat.setOutputPath(job1, temp1);
-		int flag = job1.waitForCompletion(true) ? 0 : 1;
-		if (flag!=0) {
-			System.out.println("Job1 failed, exiting");
-			System.exit(flag);
+		//the input directory, or only its time partitions in the range (see PartitionReviews)
+		List<Path> inputs = TimePartitions.setInputPaths(job1, input, range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+
+		//couples of pass 1 depend only on input files, time range and MIN_SCORE:
+		//they are cached and reused by runs that change only MIN_PRODUCTS
+		String key1 = cache.fingerprint(UserAffinityTwoPasses.class, "pass-1", inputs)
+				.add(MIN_SCORE_KEY, conf.getInt(MIN_SCORE_KEY, MIN_SCORE))
+				.add("range", range)
+				.getKey();
+		Path temp1 = cache.lookup(key1);
+		if(temp1!=null)
+			System.out.println("#Pass 1 found in cache: "+key1);
+		else{
+			//a new directory for each run, so concurrent runs do not overwrite each other
+			Path tmp = cache.reserve(key1);
+			FileOutputFormat.setOutputPath(job1, tmp);
+			int flag = job1.waitForCompletion(true) ? 0 : 1;
+			if (flag!=0) {
+				cache.discard(tmp);
+				System.out.println("Job1 failed, exiting");
+				System.exit(flag);
+			}
+			temp1 = cache.isEnabled() ? cache.commit(key1, tmp) : tmp;
 		}
 
 		Job job2 = Job.getInstance(conf, "UserAffinityTwoPasses-pass-2");
@@ -224,8 +276,33 @@ public class UserAffinityTwoPasses {
 		job2.setMapOutputValueClass(Text.class);
 		job2.setOutputKeyClass(CoupleWritable.class);
 		job2.setOutputValueClass(Text.class);
+		//text output, or indexed result file if -D reviews.output.indexed=true
+		IndexedResultOutputFormat.configure(job2);
 		
-		flag =  job2.waitForCompletion(true) ? 0 : 1;
+		String key2 = new Fingerprint(UserAffinityTwoPasses.class, "pass-2")
+				.add("pass-1", key1)
+				.add(MIN_PRODUCTS_KEY, conf.getInt(MIN_PRODUCTS_KEY, MIN_PRODUCTS))
+				.add(IndexedResultOutputFormat.ENABLED, conf.getBoolean(IndexedResultOutputFormat.ENABLED, false))
+				.getKey();
+		int flag;
+		try {
+			if(cache.restore(key2, output)){
+				System.out.println("#Result found in cache: "+key2);
+				flag = 0;
+			}
+			else{
+				flag = job2.waitForCompletion(true) ? 0 : 1;
+				if(flag==0)
+					cache.save(key2, output);
+			}
+		}
+		finally {
+			//without cache, pass 1 is a temporary result
+			if(!cache.isEnabled())
+				cache.discard(temp1);
+			//pass 1 can be evicted by other runs from now on
+			cache.release();
+		}
 		long end=System.currentTimeMillis();
 		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
 
@@ -0,0 +1,27 @@
+package com.github.fcproj.reviews.aggregation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Iterates over aggregated keys in ascending order (unsigned UTF-8 bytes), one key at a time:
+ * while(cursor.next()){ cursor.getKey(); cursor.getSum(); cursor.getCounter(); }
+ *
+ * @author fabrizio
+ *
+ */
+public interface AggregateCursor extends Closeable {
+
+	/**
+	 * Moves to the next key
+	 * @return false if there are no more keys
+	 */
+	boolean next() throws IOException;
+
+	String getKey();
+
+	double getSum();
+
+	long getCounter();
+
+}
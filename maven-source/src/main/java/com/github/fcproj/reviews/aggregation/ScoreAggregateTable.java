@@ -0,0 +1,233 @@
+package com.github.fcproj.reviews.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table (linear probing) from a key, as UTF-8 bytes, to a sum of scores and a counter.
+ * Nothing is boxed: keys are appended to a single byte array and each entry is a position in parallel
+ * primitive arrays, so the memory footprint is known and can be bounded.
+ *
+ * The table never grows beyond maxBytes: when a new key does not fit, add() returns false and the
+ * caller is expected to spill the table (see SpillableAggregator).
+ *
+ * @author fabrizio
+ *
+ */
+public class ScoreAggregateTable {
+
+	//bytes for each entry: key offset, key length, hash, sum, counter
+	static final int ENTRY_BYTES = 4 + 4 + 4 + 8 + 8;
+	private static final int INITIAL_ENTRIES = 1024;
+	private static final int INITIAL_SLOTS = 2048;//power of 2, INITIAL_ENTRIES/LOAD_FACTOR
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private final long maxBytes;
+
+	//slots[hash & mask] = entry + 1, 0 is an empty slot
+	private int[] slots;
+	private int mask;
+
+	//entries
+	private int[] keyOffsets;
+	private int[] keyLengths;
+	private int[] hashes;
+	private double[] sums;
+	private long[] counters;
+	private int size;
+
+	//all the keys, one after the other
+	private byte[] keys;
+	private int keysLength;
+
+	public ScoreAggregateTable(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.slots = new int[INITIAL_SLOTS];
+		this.mask = slots.length-1;
+		this.keyOffsets = new int[INITIAL_ENTRIES];
+		this.keyLengths = new int[INITIAL_ENTRIES];
+		this.hashes = new int[INITIAL_ENTRIES];
+		this.sums = new double[INITIAL_ENTRIES];
+		this.counters = new long[INITIAL_ENTRIES];
+		this.keys = new byte[INITIAL_ENTRIES*16];
+	}
+
+	/**
+	 * Adds sum and counter to the aggregate of key
+	 * @return false if key is a new key and there is no room for it: the table is unchanged
+	 */
+	public boolean add(byte[] key, double sum, long counter){
+		int hash = hash(key);
+		int slot = hash & mask;
+		while(slots[slot]!=0){
+			int entry = slots[slot]-1;
+			if(hashes[entry]==hash && equalKey(entry, key)){
+				sums[entry] += sum;
+				counters[entry] += counter;
+				return true;
+			}
+			slot = (slot+1) & mask;
+		}
+
+		//new key
+		int slotsLength = slots.length;
+		if(!ensureCapacity(key.length))
+			return false;
+		if(slots.length!=slotsLength){
+			//slots were resized: find the slot again
+			slot = hash & mask;
+			while(slots[slot]!=0)
+				slot = (slot+1) & mask;
+		}
+		int entry = size++;
+		System.arraycopy(key, 0, keys, keysLength, key.length);
+		keyOffsets[entry] = keysLength;
+		keyLengths[entry] = key.length;
+		keysLength += key.length;
+		hashes[entry] = hash;
+		sums[entry] = sum;
+		counters[entry] = counter;
+		slots[slot] = entry+1;
+		return true;
+	}
+
+	/*
+	 * Grows the arrays if needed to insert a key of keyLength bytes.
+	 * An empty table always accepts a key, so that aggregation can go on with a tiny budget
+	 */
+	private boolean ensureCapacity(int keyLength){
+		int entries = keyOffsets.length;
+		int slotsLength = slots.length;
+		int keysCapacity = keys.length;
+		if(size+1>entries)
+			entries = entries*2;
+		if(size+1>slotsLength*LOAD_FACTOR)
+			slotsLength = slotsLength*2;
+		if(keysLength+keyLength>keysCapacity)
+			keysCapacity = Math.max(keysCapacity*2, keysLength+keyLength);
+		if(size>0 && footprint(entries, slotsLength, keysCapacity)>maxBytes)
+			return false;
+
+		if(entries!=keyOffsets.length){
+			keyOffsets = Arrays.copyOf(keyOffsets, entries);
+			keyLengths = Arrays.copyOf(keyLengths, entries);
+			hashes = Arrays.copyOf(hashes, entries);
+			sums = Arrays.copyOf(sums, entries);
+			counters = Arrays.copyOf(counters, entries);
+		}
+		if(keysCapacity!=keys.length)
+			keys = Arrays.copyOf(keys, keysCapacity);
+		if(slotsLength!=slots.length){
+			slots = new int[slotsLength];
+			mask = slotsLength-1;
+			for(int entry=0; entry<size; entry++){
+				int slot = hashes[entry] & mask;
+				while(slots[slot]!=0)
+					slot = (slot+1) & mask;
+				slots[slot] = entry+1;
+			}
+		}
+		return true;
+	}
+
+	private static long footprint(int entries, int slotsLength, int keysCapacity){
+		return (long)entries*ENTRY_BYTES + (long)slotsLength*4 + keysCapacity;
+	}
+
+	/**
+	 * @return the bytes currently allocated by the table
+	 */
+	public long footprint(){
+		return footprint(keyOffsets.length, slots.length, keys.length);
+	}
+
+	private boolean equalKey(int entry, byte[] key){
+		if(keyLengths[entry]!=key.length)
+			return false;
+		int offset = keyOffsets[entry];
+		for(int i=0; i<key.length; i++)
+			if(keys[offset+i]!=key[i])
+				return false;
+		return true;
+	}
+
+	//FNV-1a, with a final mix since linear probing uses the low bits
+	private static int hash(byte[] key){
+		int h = 0x811c9dc5;
+		for(int i=0; i<key.length; i++){
+			h ^= key[i];
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Removes all the keys, keeping the allocated memory
+	 */
+	public void clear(){
+		Arrays.fill(slots, 0);
+		size = 0;
+		keysLength = 0;
+	}
+
+	public byte[] getKey(int entry){
+		return Arrays.copyOfRange(keys, keyOffsets[entry], keyOffsets[entry]+keyLengths[entry]);
+	}
+
+	public double getSum(int entry){
+		return sums[entry];
+	}
+
+	public long getCounter(int entry){
+		return counters[entry];
+	}
+
+	/**
+	 * @return the entries sorted by key (unsigned bytes)
+	 */
+	public int[] sortedEntries(){
+		int[] order = new int[size];
+		for(int i=0; i<size; i++)
+			order[i] = i;
+		mergeSort(order, new int[size], 0, size);
+		return order;
+	}
+
+	private void mergeSort(int[] order, int[] tmp, int from, int to){
+		if(to-from<2)
+			return;
+		int mid = (from+to)>>>1;
+		mergeSort(order, tmp, from, mid);
+		mergeSort(order, tmp, mid, to);
+		if(compareKeys(order[mid-1], order[mid])<=0)
+			return;
+		System.arraycopy(order, from, tmp, from, to-from);
+		int i = from;
+		int j = mid;
+		for(int k=from; k<to; k++){
+			if(j>=to || (i<mid && compareKeys(tmp[i], tmp[j])<=0))
+				order[k] = tmp[i++];
+			else
+				order[k] = tmp[j++];
+		}
+	}
+
+	private int compareKeys(int a, int b){
+		int offsetA = keyOffsets[a];
+		int offsetB = keyOffsets[b];
+		int n = Math.min(keyLengths[a], keyLengths[b]);
+		for(int i=0; i<n; i++){
+			int cmp = (keys[offsetA+i] & 0xff) - (keys[offsetB+i] & 0xff);
+			if(cmp!=0)
+				return cmp;
+		}
+		return keyLengths[a] - keyLengths[b];
+	}
+
+}
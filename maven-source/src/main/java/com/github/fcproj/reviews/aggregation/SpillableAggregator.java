@@ -0,0 +1,319 @@
+package com.github.fcproj.reviews.aggregation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Aggregates scores (sum and counter) by key within a memory budget, for reducers that need all their keys
+ * before writing the output in cleanup().
+ *
+ * Keys are aggregated in a ScoreAggregateTable. When the table reaches the budget, its entries are written,
+ * sorted by key, in a run file on the local disk and the table is emptied. At the end, cursor() merges the runs
+ * (k-way merge with a priority queue, MERGE_FACTOR runs at a time) summing the aggregates of the same key,
+ * so the memory needed does not depend on the number of keys.
+ *
+ * Usage: add() for all the values, then cursor() once, then close() to delete the run files.
+ *
+ * Configuration:
+ * - reviews.aggregation.memory.mb: memory budget of the table (default 64)
+ * - reviews.aggregation.spill.dir: directory of the run files (default java.io.tmpdir, which is the
+ *   working directory of the task in YARN containers)
+ *
+ * @author fabrizio
+ *
+ */
+public class SpillableAggregator implements Closeable {
+
+	public static final String MEMORY_MB = "reviews.aggregation.memory.mb";
+	public static final String SPILL_DIR = "reviews.aggregation.spill.dir";
+	public static final int DEFAULT_MEMORY_MB = 64;
+	static final int MERGE_FACTOR = 64;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ScoreAggregateTable table;
+	private final File spillDir;
+	private final List<File> runs = new ArrayList<File>();
+	private int spills;
+
+	public SpillableAggregator(long memoryBytes, File spillDir) {
+		this.table = new ScoreAggregateTable(memoryBytes);
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * Creates an aggregator with budget and spill directory taken from the configuration of the job
+	 */
+	public static SpillableAggregator create(Configuration conf) {
+		long budget = conf.getLong(MEMORY_MB, DEFAULT_MEMORY_MB)*1024*1024;
+		File dir = new File(conf.get(SPILL_DIR, System.getProperty("java.io.tmpdir")));
+		return new SpillableAggregator(budget, dir);
+	}
+
+	/**
+	 * Adds a single score to key
+	 */
+	public void add(String key, double score) throws IOException {
+		add(key, score, 1);
+	}
+
+	/**
+	 * Adds a partial aggregate to key
+	 */
+	public void add(String key, double sum, long counter) throws IOException {
+		byte[] k = key.getBytes(UTF8);
+		if(!table.add(k, sum, counter)){
+			spill();
+			table.add(k, sum, counter);
+		}
+	}
+
+	/**
+	 * @return number of times the table was written to disk
+	 */
+	public int getSpills() {
+		return spills;
+	}
+
+	//write the table, sorted by key, in a new run
+	private void spill() throws IOException {
+		if(table.size()==0)
+			return;
+		File run = newRun();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+		try {
+			for(int entry: table.sortedEntries())
+				write(out, table.getKey(entry), table.getSum(entry), table.getCounter(entry));
+		}
+		finally {
+			out.close();
+		}
+		table.clear();
+		spills++;
+	}
+
+	private File newRun() throws IOException {
+		if(!spillDir.isDirectory() && !spillDir.mkdirs())
+			throw new IOException("Cannot create spill directory "+spillDir);
+		File run = File.createTempFile("aggregation-", ".run", spillDir);
+		runs.add(run);
+		return run;
+	}
+
+	private static void write(DataOutputStream out, byte[] key, double sum, long counter) throws IOException {
+		out.writeInt(key.length);
+		out.write(key);
+		out.writeDouble(sum);
+		out.writeLong(counter);
+	}
+
+	/**
+	 * @return all the keys, sorted, with their total sum and counter
+	 */
+	public AggregateCursor cursor() throws IOException {
+		if(runs.isEmpty())
+			return new TableCursor(table);
+		spill();
+		//keep the number of open files bounded: merge the oldest runs into a bigger one
+		while(runs.size()>MERGE_FACTOR){
+			//inputs stay in runs until they are merged, so that close() deletes them after a failure
+			List<File> inputs = new ArrayList<File>(runs.subList(0, MERGE_FACTOR));
+			MergeCursor merge = open(inputs);
+			try {
+				File run = newRun();
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+				try {
+					while(merge.next())
+						write(out, merge.key, merge.sum, merge.counter);
+				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				merge.close();
+			}
+			runs.subList(0, MERGE_FACTOR).clear();
+			for(File input: inputs)
+				input.delete();
+		}
+		return open(runs);
+	}
+
+	private MergeCursor open(List<File> files) throws IOException {
+		List<RunCursor> cursors = new ArrayList<RunCursor>();
+		try {
+			for(File file: files)
+				cursors.add(new RunCursor(file));
+		}
+		catch(IOException e){
+			for(RunCursor cursor: cursors)
+				cursor.close();
+			throw e;
+		}
+		return new MergeCursor(cursors);
+	}
+
+	/**
+	 * Deletes the run files
+	 */
+	public void close() throws IOException {
+		for(File run: runs)
+			run.delete();
+		runs.clear();
+		table.clear();
+	}
+
+	private static int compare(byte[] a, byte[] b){
+		int n = Math.min(a.length, b.length);
+		for(int i=0; i<n; i++){
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if(cmp!=0)
+				return cmp;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Keys in memory, when nothing was spilled
+	 */
+	private static class TableCursor implements AggregateCursor {
+		private final ScoreAggregateTable table;
+		private final int[] entries;
+		private int position = -1;
+
+		TableCursor(ScoreAggregateTable table){
+			this.table = table;
+			this.entries = table.sortedEntries();
+		}
+		public boolean next() {
+			return ++position<entries.length;
+		}
+		public String getKey() {
+			return new String(table.getKey(entries[position]), UTF8);
+		}
+		public double getSum() {
+			return table.getSum(entries[position]);
+		}
+		public long getCounter() {
+			return table.getCounter(entries[position]);
+		}
+		public void close() {
+		}
+	}
+
+	/**
+	 * A run file
+	 */
+	private static class RunCursor {
+		private final DataInputStream in;
+		byte[] key;
+		double sum;
+		long counter;
+
+		private final File file;
+
+		RunCursor(File file) throws IOException {
+			this.file = file;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		}
+		boolean next() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			}
+			catch(EOFException e){
+				return false;
+			}
+			if(length<0)
+				throw new IOException("Corrupted run "+file);
+			key = new byte[length];
+			in.readFully(key);
+			sum = in.readDouble();
+			counter = in.readLong();
+			return true;
+		}
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * K-way merge of sorted runs: the aggregates of a key in different runs are summed
+	 */
+	private static class MergeCursor implements AggregateCursor {
+		private final PriorityQueue<RunCursor> queue;
+		private final List<RunCursor> cursors;
+		byte[] key;
+		double sum;
+		long counter;
+
+		MergeCursor(List<RunCursor> cursors) throws IOException {
+			this.cursors = cursors;
+			this.queue = new PriorityQueue<RunCursor>(Math.max(1, cursors.size()), new Comparator<RunCursor>() {
+				public int compare(RunCursor a, RunCursor b) {
+					return SpillableAggregator.compare(a.key, b.key);
+				}
+			});
+			try {
+				for(RunCursor cursor: cursors)
+					if(cursor.next())
+						queue.add(cursor);
+			}
+			catch(IOException e){
+				//a truncated or corrupted run: the caller gets no cursor to close
+				close();
+				throw e;
+			}
+		}
+		public boolean next() throws IOException {
+			RunCursor head = queue.poll();
+			if(head==null)
+				return false;
+			key = head.key;
+			sum = head.sum;
+			counter = head.counter;
+			advance(head);
+			while(!queue.isEmpty() && compare(queue.peek().key, key)==0){
+				head = queue.poll();
+				sum += head.sum;
+				counter += head.counter;
+				advance(head);
+			}
+			return true;
+		}
+		private void advance(RunCursor cursor) throws IOException {
+			if(cursor.next())
+				queue.add(cursor);
+		}
+		public String getKey() {
+			return new String(key, UTF8);
+		}
+		public double getSum() {
+			return sum;
+		}
+		public long getCounter() {
+			return counter;
+		}
+		public void close() throws IOException {
+			for(RunCursor cursor: cursors)
+				cursor.close();
+		}
+	}
+
+}
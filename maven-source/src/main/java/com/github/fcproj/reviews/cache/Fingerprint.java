@@ -0,0 +1,181 @@
+package com.github.fcproj.reviews.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.util.ClassUtil;
+
+/**
+ * SHA-1 of everything a result depends on: job and its code, input files and parameters.
+ * Two runs with the same fingerprint compute the same result, so the fingerprint is the key of the ResultCache.
+ *
+ * Input files are identified by path, length and modification time, or by their checksum
+ * (e.g. the HDFS checksum, if available) so that a copy of the same file has the same fingerprint.
+ * The code is the jar of the job (path, length and modification time), or the content of the classes directory
+ * when the job does not run from a jar: a new build never reuses the results of the previous one.
+ *
+ * @author fabrizio
+ *
+ */
+public class Fingerprint {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//same filter of FileInputFormat
+	private static final PathFilter VISIBLE = new PathFilter() {
+		public boolean accept(Path path) {
+			String name = path.getName();
+			return !name.startsWith("_") && !name.startsWith(".");
+		}
+	};
+
+	private static final Comparator<FileStatus> BY_PATH = new Comparator<FileStatus>() {
+		public int compare(FileStatus a, FileStatus b) {
+			return a.getPath().compareTo(b.getPath());
+		}
+	};
+
+	private final MessageDigest digest;
+
+	/**
+	 * @param job the class of the job
+	 * @param stage the pass of the job, for jobs with more passes
+	 */
+	public Fingerprint(Class<?> job, String stage) {
+		try {
+			this.digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+		add("job", job.getName());
+		addCode(job);
+		add("stage", stage);
+	}
+
+	private void addCode(Class<?> job) {
+		String jar = ClassUtil.findContainingJar(job);
+		if(jar!=null){
+			File file = new File(jar);
+			add("jar", jar+":"+file.length()+":"+file.lastModified());
+			return;
+		}
+		CodeSource source = job.getProtectionDomain().getCodeSource();
+		try {
+			File classes = source==null ? null : new File(source.getLocation().toURI());
+			if(classes!=null && classes.isDirectory()){
+				addDirectory(classes, "");
+				return;
+			}
+		}
+		catch(URISyntaxException e){
+		}
+		catch(IOException e){
+		}
+		//unknown code: results are not reused across runs
+		add("code", System.nanoTime()+":"+Math.random());
+	}
+
+	//relative path and content of every file, sorted by path
+	private void addDirectory(File dir, String path) throws IOException {
+		File[] files = dir.listFiles();
+		if(files==null)
+			throw new IOException("Cannot list "+dir);
+		Arrays.sort(files);
+		byte[] buffer = new byte[8192];
+		for(File file: files){
+			if(file.isDirectory()){
+				addDirectory(file, path+file.getName()+"/");
+				continue;
+			}
+			add("file", path+file.getName());
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while((n = in.read(buffer))!=-1)
+					digest.update(buffer, 0, n);
+			}
+			finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Adds a parameter: value is converted with toString(), null is allowed
+	 */
+	public Fingerprint add(String name, Object value) {
+		digest.update((name+"="+value+"\n").getBytes(UTF8));
+		return this;
+	}
+
+	/**
+	 * Adds the files read by FileInputFormat from the input paths, sorted by path
+	 * @param checksum true to identify files by checksum instead of path, length and modification time
+	 */
+	public Fingerprint addInputs(FileSystem fs, List<Path> inputs, boolean checksum) throws IOException {
+		List<FileStatus> files = new ArrayList<FileStatus>();
+		for(Path input: inputs){
+			FileStatus status = fs.getFileStatus(input);
+			if(status.isDirectory()){
+				for(FileStatus child: fs.listStatus(input, VISIBLE))
+					if(child.isFile())
+						files.add(child);
+			}
+			else
+				files.add(status);
+		}
+		Collections.sort(files, BY_PATH);
+		for(FileStatus file: files){
+			FileChecksum fileChecksum = checksum ? fs.getFileChecksum(file.getPath()) : null;
+			if(fileChecksum!=null)
+				add("input", fileChecksum.getAlgorithmName()+":"+toHex(fileChecksum.getBytes())+":"+file.getLen());
+			else
+				add("input", file.getPath().toUri().getPath()+":"+file.getLen()+":"+file.getModificationTime());
+		}
+		return this;
+	}
+
+	/**
+	 * @return the fingerprint, as an hexadecimal string
+	 */
+	public String getKey() {
+		try {
+			//digest() resets the digest: work on a copy, so that parameters can still be added
+			return toHex(((MessageDigest)digest.clone()).digest());
+		}
+		catch(CloneNotSupportedException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes){
+		StringBuilder sb = new StringBuilder(bytes.length*2);
+		for(byte b: bytes)
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getKey();
+	}
+
+}
@@ -0,0 +1,356 @@
+package com.github.fcproj.reviews.cache;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Cache of job results and intermediate results, in a directory of the file system of the job.
+ * Each entry is a directory named by the Fingerprint of the result (job, input files, parameters),
+ * containing the output files of the job.
+ *
+ * An entry is written in a temporary directory and renamed when complete, so concurrent runs never see
+ * partial entries. When the cache grows beyond its size budget, least recently used entries are deleted.
+ * The last use of an entry is its modification time, updated at each hit.
+ * A run holds a lease on the entries it is reading (an empty lease-KEY.UUID file in the cache directory),
+ * so that concurrent runs never evict them. Leases of runs that died expire after reviews.cache.lease.hours:
+ * while a run holds leases or temporary directories, a daemon thread renews their modification time, so a run
+ * longer than the expiration keeps them.
+ *
+ * Configuration:
+ * - reviews.cache.enabled: default true
+ * - reviews.cache.dir: default .reviews-cache in the working directory (the home directory on HDFS)
+ * - reviews.cache.max.mb: size budget, default 1024
+ * - reviews.cache.checksum: identify input files by checksum instead of modification time, default false
+ * - reviews.cache.lease.hours: expiration of the leases and temporary directories of runs that died, default 24
+ *
+ * @author fabrizio
+ *
+ */
+public class ResultCache {
+
+	public static final String ENABLED = "reviews.cache.enabled";
+	public static final String DIR = "reviews.cache.dir";
+	public static final String MAX_MB = "reviews.cache.max.mb";
+	public static final String CHECKSUM = "reviews.cache.checksum";
+	public static final String LEASE_HOURS = "reviews.cache.lease.hours";
+	public static final String DEFAULT_DIR = ".reviews-cache";
+	public static final int DEFAULT_MAX_MB = 1024;
+	public static final int DEFAULT_LEASE_HOURS = 24;
+
+	private static final String TMP = "tmp-";//not hidden: temporary directories of pass 1 are read by FileInputFormat
+	private static final String LEASE = "lease-";
+
+	private final Configuration conf;
+	private final boolean enabled;
+	private final FileSystem fs;
+	private final Path dir;
+	private final long maxBytes;
+	private final boolean checksum;
+	//a temporary entry or lease older than this belongs to a dead run
+	private final long expiration;
+	//entries used by this run, never evicted by it
+	private final Set<String> used = new HashSet<String>();
+	//leases held by this run, on entries that other runs must not evict
+	private final List<Path> leases = new ArrayList<Path>();
+	//temporary directories reserved by this run, not committed or discarded yet
+	private final List<Path> reserved = new ArrayList<Path>();
+	//renews leases and temporary directories while there are any
+	private Timer renewal;
+
+	public ResultCache(Configuration conf) throws IOException {
+		this.conf = conf;
+		this.enabled = conf.getBoolean(ENABLED, true);
+		Path path = new Path(conf.get(DIR, DEFAULT_DIR));
+		this.fs = path.getFileSystem(conf);
+		this.dir = fs.makeQualified(path);
+		this.maxBytes = conf.getLong(MAX_MB, DEFAULT_MAX_MB)*1024*1024;
+		this.checksum = conf.getBoolean(CHECKSUM, false);
+		this.expiration = conf.getLong(LEASE_HOURS, DEFAULT_LEASE_HOURS)*60*60*1000;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return a fingerprint of job, stage and input files, to which parameters must be added
+	 */
+	public Fingerprint fingerprint(Class<?> job, String stage, List<Path> inputs) throws IOException {
+		Fingerprint fingerprint = new Fingerprint(job, stage);
+		if(!inputs.isEmpty())
+			fingerprint.addInputs(inputs.get(0).getFileSystem(conf), inputs, checksum);
+		return fingerprint;
+	}
+
+	/**
+	 * @return the directory of the entry, null if the cache is disabled or key is not in the cache
+	 */
+	public Path lookup(String key) throws IOException {
+		if(!enabled)
+			return null;
+		Path entry = new Path(dir, key);
+		//lease first: once the lease exists, other runs do not evict the entry
+		Path lease = lease(key);
+		try {
+			if(fs.exists(entry)){
+				fs.setTimes(entry, System.currentTimeMillis(), -1);
+				used.add(key);
+				return entry;
+			}
+		}
+		catch(FileNotFoundException e){
+			//evicted by a run that listed the cache before the lease
+		}
+		release(lease);
+		return null;
+	}
+
+	private synchronized Path lease(String key) throws IOException {
+		Path lease = new Path(dir, LEASE+key+"."+UUID.randomUUID());
+		fs.create(lease, false).close();
+		leases.add(lease);
+		schedule();
+		return lease;
+	}
+
+	private synchronized void release(Path lease) throws IOException {
+		fs.delete(lease, false);
+		leases.remove(lease);
+		schedule();
+	}
+
+	/**
+	 * Releases the leases of this run on key, so that other runs can evict it
+	 */
+	public synchronized void release(String key) throws IOException {
+		Iterator<Path> it = leases.iterator();
+		while(it.hasNext()){
+			Path lease = it.next();
+			if(lease.getName().startsWith(LEASE+key+".")){
+				fs.delete(lease, false);
+				it.remove();
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * Releases all the leases of this run
+	 */
+	public synchronized void release() throws IOException {
+		for(Path lease: leases)
+			fs.delete(lease, false);
+		leases.clear();
+		schedule();
+	}
+
+	/**
+	 * @return a new temporary directory, where a job can write the result of key. It must not exist for FileOutputFormat
+	 */
+	public synchronized Path reserve(String key) throws IOException {
+		fs.mkdirs(dir);
+		Path tmp = new Path(dir, TMP+key+"-"+UUID.randomUUID());
+		reserved.add(tmp);
+		schedule();
+		return tmp;
+	}
+
+	/**
+	 * Sets the modification time of the leases and temporary directories of this run to now,
+	 * so that other runs do not take them for the leftovers of a dead run
+	 */
+	public synchronized void renew() {
+		long now = System.currentTimeMillis();
+		List<Path> paths = new ArrayList<Path>(leases);
+		paths.addAll(reserved);
+		for(Path path: paths){
+			try {
+				//a temporary directory is created by the job: it may not exist yet
+				if(fs.exists(path))
+					fs.setTimes(path, now, -1);
+			}
+			catch(IOException e){
+				System.err.println("Cannot renew "+path+": "+e.getMessage());
+			}
+		}
+	}
+
+	//starts the renewal with the first lease or temporary directory, stops it with the last one
+	private void schedule() {
+		boolean held = !leases.isEmpty() || !reserved.isEmpty();
+		if(held && renewal==null){
+			long period = Math.max(1000, expiration/4);
+			renewal = new Timer("result-cache-renewal", true);
+			renewal.schedule(new TimerTask() {
+				public void run() {
+					renew();
+				}
+			}, period, period);
+		}
+		else if(!held && renewal!=null){
+			renewal.cancel();
+			renewal = null;
+		}
+	}
+
+	/**
+	 * Makes a temporary directory written by a job the entry of key.
+	 * If another run added the same entry in the meantime, the temporary directory is deleted.
+	 * Then entries are evicted, if the cache is beyond its budget
+	 * @return the directory of the entry
+	 */
+	public Path commit(String key, Path tmp) throws IOException {
+		Path entry = new Path(dir, key);
+		used.add(key);
+		lease(key);
+		unreserve(tmp);
+		if(!fs.rename(tmp, entry)){
+			if(!fs.exists(entry))
+				throw new IOException("Cannot move "+tmp+" to "+entry);
+			fs.delete(tmp, true);
+		}
+		fs.setTimes(entry, System.currentTimeMillis(), -1);
+		evict();
+		return entry;
+	}
+
+	/**
+	 * Copies the cached result of key to output, which must not exist
+	 * @return false if the cache is disabled or key is not in the cache
+	 */
+	public boolean restore(String key, Path output) throws IOException {
+		Path entry = lookup(key);
+		if(entry==null)
+			return false;
+		FileSystem outFs = output.getFileSystem(conf);
+		try {
+			if(outFs.exists(output))
+				throw new IOException("Output directory "+output+" already exists");
+			try {
+				if(!FileUtil.copy(fs, entry, outFs, output, false, conf))
+					throw new IOException("Cannot copy "+entry+" to "+output);
+			}
+			catch(IOException e){
+				//e.g. evicted by another run during the copy: the result is computed again
+				System.err.println("Result not restored from cache: "+e.getMessage());
+				outFs.delete(output, true);
+				return false;
+			}
+		}
+		finally {
+			release(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the output of a job in the cache, as the entry of key.
+	 * The output is already written: if the cache fails, the error is only reported
+	 */
+	public void save(String key, Path output) {
+		if(!enabled)
+			return;
+		Path tmp = null;
+		try {
+			tmp = reserve(key);
+			if(!FileUtil.copy(output.getFileSystem(conf), output, fs, tmp, false, conf))
+				throw new IOException("Cannot copy "+output+" to "+tmp);
+			commit(key, tmp);
+			release(key);
+		}
+		catch(IOException e){
+			System.err.println("Result not cached: "+e.getMessage());
+			try {
+				if(tmp!=null)
+					discard(tmp);
+				release(key);
+			}
+			catch(IOException ignored){
+			}
+		}
+	}
+
+	/**
+	 * Deletes least recently used entries until the cache is within its budget, except entries leased by any run,
+	 * and temporary entries and leases of runs that died
+	 */
+	public void evict() throws IOException {
+		if(!fs.exists(dir))
+			return;
+		FileStatus[] entries = fs.listStatus(dir);
+		long now = System.currentTimeMillis();
+		long total = 0;
+		long[] sizes = new long[entries.length];
+		//entries leased by this or other runs
+		Set<String> leased = new HashSet<String>(used);
+		for(int i=0; i<entries.length; i++){
+			String name = entries[i].getPath().getName();
+			if(name.startsWith(LEASE)){
+				if(now-entries[i].getModificationTime()>expiration)
+					fs.delete(entries[i].getPath(), false);
+				else
+					leased.add(name.substring(LEASE.length(), name.indexOf('.')));
+				continue;
+			}
+			if(name.startsWith(TMP)){
+				if(now-entries[i].getModificationTime()>expiration)
+					fs.delete(entries[i].getPath(), true);
+				continue;
+			}
+			sizes[i] = fs.getContentSummary(entries[i].getPath()).getLength();
+			total += sizes[i];
+		}
+
+		//least recently used first
+		Integer[] order = new Integer[entries.length];
+		for(int i=0; i<order.length; i++)
+			order[i] = i;
+		final FileStatus[] statuses = entries;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long ta = statuses[a].getModificationTime();
+				long tb = statuses[b].getModificationTime();
+				return ta<tb ? -1 : (ta>tb ? 1 : 0);
+			}
+		});
+		for(int i: order){
+			if(total<=maxBytes)
+				break;
+			String name = entries[i].getPath().getName();
+			if(name.startsWith(TMP) || name.startsWith(LEASE) || leased.contains(name))
+				continue;
+			if(fs.delete(entries[i].getPath(), true))
+				total -= sizes[i];
+		}
+	}
+
+	/**
+	 * Deletes a temporary directory, when the cache is disabled or the job failed
+	 */
+	public void discard(Path tmp) throws IOException {
+		unreserve(tmp);
+		fs.delete(tmp, true);
+	}
+
+	private synchronized void unreserve(Path tmp) {
+		reserved.remove(tmp);
+		schedule();
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.github.fcproj.reviews.cube;
+
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * Scores of a product (or user) in a range of months, as computed from the cube:
+ * number of scores, sum, and number of scores for each value from 1 to 5
+ *
+ * @author fabrizio
+ *
+ */
+public class Aggregate {
+
+	private final String key;
+	private final int fromMonth;
+	private final int toMonth;
+	private final long counter;
+	private final long sum;
+	private final long[] histogram;
+
+	Aggregate(String key, int fromMonth, int toMonth, long counter, long sum, long[] histogram) {
+		this.key = key;
+		this.fromMonth = fromMonth;
+		this.toMonth = toMonth;
+		this.counter = counter;
+		this.sum = sum;
+		this.histogram = histogram;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public int getFromMonth() {
+		return fromMonth;
+	}
+
+	public int getToMonth() {
+		return toMonth;
+	}
+
+	public long getCounter() {
+		return counter;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the average score, NaN if there is no score
+	 */
+	public double getMean() {
+		return (double)sum/counter;
+	}
+
+	/**
+	 * @param score from 1 to 5
+	 */
+	public long getHistogram(int score) {
+		return histogram[score-1];
+	}
+
+	/**
+	 * KEY \t FROM..TO \t AVERAGESCORE \t REVIEWS \t N1,N2,N3,N4,N5
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(key).append('\t');
+		sb.append(fromMonth==Integer.MIN_VALUE ? "" : TimeRange.formatMonth(fromMonth)).append("..");
+		sb.append(toMonth==Integer.MAX_VALUE ? "" : TimeRange.formatMonth(toMonth)).append('\t');
+		sb.append(counter==0 ? "-" : String.valueOf(getMean())).append('\t').append(counter).append('\t');
+		for(int i=0; i<histogram.length; i++)
+			sb.append(i==0 ? "" : ",").append(histogram[i]);
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,199 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.cache.ResultCache;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * Given Amazon Fine Food Review CSV files: builds the monthly cube, i.e. for each product (or user, with
+ * -D reviews.cube.dimension=user) and each month, the number of scores, their sum and their histogram,
+ * stored with prefix sums along time (see MonthlySeries). MonthlyCube answers averages, rolling averages,
+ * histograms and top k on any range of months from the cube, without reading the reviews again.
+ *
+ * A single pass is enough: a reducer gets all the cells of a product, so it writes the whole series of the product.
+ * The combiner merges the cells of the same month.
+ *
+ * The output is a directory of part-r-NNNNN.cube files (see CubeOutputFormat).
+ *
+ * The input is:
+ * - a directory containing one or more input files
+ * - an output directory
+ *
+ * @author fabrizio
+ *
+ */
+public class BuildCube {
+
+	public static final String DIMENSION_KEY = "reviews.cube.dimension";
+	public static final String PRODUCT = "product";
+	public static final String USER = "user";
+
+	/**
+	 * Returns a product (or user) with the cell of the month of the review
+	 * @author fabrizio
+	 *
+	 */
+	public static class Mapper1 extends Mapper<LongWritable,Text,Text,MonthCellWritable> {
+
+		private static MonthCellWritable CELL = new MonthCellWritable();
+		private static Text KEY = new Text();
+		private TimeRange range;
+		private int column;
+
+		@Override
+		protected void setup(Context ctx) {
+			range = TimeRange.get(ctx.getConfiguration());
+			column = USER.equals(ctx.getConfiguration().get(DIMENSION_KEY, PRODUCT)) ? AmazonFoodReviewsColumns.USER_ID : AmazonFoodReviewsColumns.PROD_ID;
+		}
+
+		@Override
+		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+			String[] cols = (value.toString()).split("\t");
+			//check data correctness
+			if(cols!=null && cols.length==10){
+				try {
+					String id = cols[column];
+					int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
+					long date = Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]);
+					if(id!=null && score>=1 && score<=MonthCellWritable.SCORES && range.contains(date)){
+						CELL.set(TimeRange.monthIndexOf(date), score);
+						KEY.set(id);
+						ctx.write(KEY, CELL);
+					}
+				}
+				catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	//merges the cells of the same month, sorted by month
+	private static TreeMap<Integer, MonthCellWritable> merge(Iterable<MonthCellWritable> values){
+		TreeMap<Integer, MonthCellWritable> month2cell = new TreeMap<Integer, MonthCellWritable>();
+		for (MonthCellWritable value : values) {
+			MonthCellWritable cell = month2cell.get(value.getMonth());
+			//the iterator reuses the same object: a copy is kept
+			if(cell==null)
+				month2cell.put(value.getMonth(), new MonthCellWritable(value));
+			else
+				cell.add(value);
+		}
+		return month2cell;
+	}
+
+	/**
+	 * Merges the cells of the same product and month
+	 * @author fabrizio
+	 *
+	 */
+	public static class Combiner1 extends Reducer<Text,MonthCellWritable,Text,MonthCellWritable> {
+
+		@Override
+		public void reduce(Text key, Iterable<MonthCellWritable> values, Context ctx) throws IOException, InterruptedException {
+			for(Map.Entry<Integer, MonthCellWritable> cell: merge(values).entrySet())
+				ctx.write(key, cell.getValue());
+		}
+	}
+
+	/**
+	 * Writes the series of each product
+	 * @author fabrizio
+	 *
+	 */
+	public static class Reducer1 extends Reducer<Text,MonthCellWritable,Text,MonthlySeries> {
+
+		@Override
+		public void reduce(Text key, Iterable<MonthCellWritable> values, Context ctx) throws IOException, InterruptedException {
+			ctx.write(key, new MonthlySeries(merge(values).values()));
+		}
+	}
+
+	/**
+	 * Do the job
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		long start=System.currentTimeMillis();
+
+		Configuration conf = new Configuration();
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		String dimension = conf.get(DIMENSION_KEY, PRODUCT);
+		if (range==null || otherArgs.size() != 2 || !(dimension.equals(PRODUCT) || dimension.equals(USER))) {
+			System.err.println("Usage: BuildCube [-D reviews.cube.dimension=product|user] [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
+			System.exit(2);
+		}
+
+		Job job = Job.getInstance(conf);
+		job.setJobName("BuildCube-"+dimension);
+		job.setJarByClass(BuildCube.class);
+		job.setMapperClass(Mapper1.class);
+		job.setCombinerClass(Combiner1.class);
+		job.setReducerClass(Reducer1.class);
+		job.setInputFormatClass(TextInputFormat.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(MonthCellWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(MonthlySeries.class);
+		job.setOutputFormatClass(CubeOutputFormat.class);
+
+		//a directory containing one or more input files, or only its time partitions in the range (see PartitionReviews)
+		List<Path> inputs = TimePartitions.setInputPaths(job, new Path(otherArgs.get(0)), range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+		Path output = new Path(otherArgs.get(1));
+		FileOutputFormat.setOutputPath(job, output);
+
+		//the job is skipped if the cube of the same input files and parameters is in the cache
+		ResultCache cache = new ResultCache(job.getConfiguration());
+		String key = cache.fingerprint(BuildCube.class, "result", inputs)
+				.add(DIMENSION_KEY, dimension)
+				.add("range", range)
+				.getKey();
+		int flag;
+		if(cache.restore(key, output)){
+			System.out.println("#Result found in cache: "+key);
+			flag = 0;
+		}
+		else{
+			flag = job.waitForCompletion(true) ? 0 : 1;
+			if(flag==0)
+				cache.save(key, output);
+		}
+		long end=System.currentTimeMillis();
+		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
+
+		System.exit(flag);
+	}
+
+}
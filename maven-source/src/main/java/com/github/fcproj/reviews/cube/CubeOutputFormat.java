@@ -0,0 +1,68 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the series of a reducer in a cube file, part-r-NNNNN.cube:
+ * MAGIC, VERSION, dimension (product or user), then for each key a true boolean, the key and its MonthlySeries,
+ * and a false boolean at the end. Keys are sorted, as they come to the reducer.
+ *
+ * @author fabrizio
+ *
+ */
+public class CubeOutputFormat extends FileOutputFormat<Text, MonthlySeries> {
+
+	static final int MAGIC = 0x41464342;//"AFCB"
+	static final int VERSION = 1;
+	static final String EXTENSION = ".cube";
+
+	@Override
+	public RecordWriter<Text, MonthlySeries> getRecordWriter(TaskAttemptContext ctx) throws IOException {
+		Path file = getDefaultWorkFile(ctx, EXTENSION);
+		FileSystem fs = file.getFileSystem(ctx.getConfiguration());
+		DataOutputStream out = fs.create(file, false);
+		writeHeader(out, ctx.getConfiguration().get(BuildCube.DIMENSION_KEY, BuildCube.PRODUCT));
+		return new CubeRecordWriter(out);
+	}
+
+	static void writeHeader(DataOutputStream out, String dimension) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(dimension);
+	}
+
+	protected static class CubeRecordWriter extends RecordWriter<Text, MonthlySeries> {
+
+		private final DataOutputStream out;
+
+		CubeRecordWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(Text key, MonthlySeries value) throws IOException {
+			out.writeBoolean(true);
+			key.write(out);
+			value.write(out);
+		}
+
+		@Override
+		public void close(TaskAttemptContext ctx) throws IOException {
+			try {
+				out.writeBoolean(false);
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+
+}
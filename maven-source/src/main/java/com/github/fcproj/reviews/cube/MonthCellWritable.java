@@ -0,0 +1,90 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * This object represents the scores of a product (or user) in a month: sum, number of scores
+ * and number of scores for each value from 1 to 5. Cells of the same month can be added, so a combiner can merge them
+ * @author fabrizio
+ *
+ */
+public class MonthCellWritable implements Writable {
+
+	public static final int SCORES = 5;
+
+	private int month;//year*12+month-1, see TimeRange.monthIndexOf
+	private long sum;
+	private long counter;
+	private final long[] histogram = new long[SCORES];
+
+	public MonthCellWritable() {
+	}
+
+	public MonthCellWritable(MonthCellWritable cell) {
+		this.month = cell.month;
+		add(cell);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		month = WritableUtils.readVInt(in);
+		sum = WritableUtils.readVLong(in);
+		counter = WritableUtils.readVLong(in);
+		for(int i=0; i<SCORES; i++)
+			histogram[i] = WritableUtils.readVLong(in);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, month);
+		WritableUtils.writeVLong(out, sum);
+		WritableUtils.writeVLong(out, counter);
+		for(int i=0; i<SCORES; i++)
+			WritableUtils.writeVLong(out, histogram[i]);
+	}
+
+	/**
+	 * Sets the cell to a single score, from 1 to 5
+	 */
+	public void set(int month, int score) {
+		this.month = month;
+		this.sum = score;
+		this.counter = 1;
+		for(int i=0; i<SCORES; i++)
+			histogram[i] = 0;
+		histogram[score-1] = 1;
+	}
+
+	/**
+	 * Adds the scores of a cell of the same month
+	 */
+	public void add(MonthCellWritable cell) {
+		sum += cell.sum;
+		counter += cell.counter;
+		for(int i=0; i<SCORES; i++)
+			histogram[i] += cell.histogram[i];
+	}
+
+	public int getMonth() {
+		return month;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getCounter() {
+		return counter;
+	}
+
+	/**
+	 * @param score from 1 to 5
+	 */
+	public long getHistogram(int score) {
+		return histogram[score-1];
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.Text;
+
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * The cube files (part-r-*.cube) written by BuildCube, copied on the local file system and loaded in memory.
+ * Queries on a range of months never read the reviews: the aggregate of a product is the difference of two prefix sums
+ * of its MonthlySeries, so a query costs O(log months) per product, whatever the length of the range.
+ * Ranges are in months: a bound with a day (yyyy-MM-dd) counts as its whole month.
+ *
+ * Command line usage:
+ * MonthlyCube <directory-or-file> [--from yyyy-MM] [--to yyyy-MM] avg <key>
+ * MonthlyCube <directory-or-file> [--from yyyy-MM] [--to yyyy-MM] rolling <key> <months>
+ * MonthlyCube <directory-or-file> [--from yyyy-MM] [--to yyyy-MM] top <k> [<min-reviews>]
+ *
+ * @author fabrizio
+ *
+ */
+public class MonthlyCube {
+
+	private final Map<String, MonthlySeries> key2series = new HashMap<String, MonthlySeries>();
+	private String dimension;
+
+	/**
+	 * @param path a BuildCube output directory or a single cube file
+	 */
+	public MonthlyCube(File path) throws IOException {
+		File[] files;
+		if(path.isDirectory()){
+			files = path.listFiles(new FileFilter() {
+				public boolean accept(File f) {
+					return f.isFile() && f.getName().startsWith("part-") && f.getName().endsWith(CubeOutputFormat.EXTENSION);
+				}
+			});
+			if(files==null)
+				throw new IOException("Cannot list "+path);
+			//an empty cube would answer every query with nothing
+			if(files.length==0)
+				throw new IOException("No cube file in "+path);
+			Arrays.sort(files);
+		}
+		else
+			files = new File[]{path};
+		for(File file: files)
+			load(file);
+	}
+
+	private void load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt()!=CubeOutputFormat.MAGIC || in.readInt()!=CubeOutputFormat.VERSION)
+				throw new IOException("Not a cube file: "+file);
+			String fileDimension = in.readUTF();
+			if(dimension!=null && !dimension.equals(fileDimension))
+				throw new IOException("Cube files of different dimensions: "+dimension+" and "+fileDimension);
+			dimension = fileDimension;
+			Text key = new Text();
+			while(in.readBoolean()){
+				key.readFields(in);
+				MonthlySeries series = new MonthlySeries();
+				series.readFields(in);
+				key2series.put(key.toString(), series);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return product or user
+	 */
+	public String getDimension() {
+		return dimension;
+	}
+
+	public int size() {
+		return key2series.size();
+	}
+
+	/**
+	 * @return scores of a product (or user) in the range, null if the key is not in the cube
+	 */
+	public Aggregate aggregate(String key, TimeRange range) {
+		MonthlySeries series = key2series.get(key);
+		if(series==null)
+			return null;
+		return series.aggregate(key, range.getFromMonth(), range.getToMonth());
+	}
+
+	/**
+	 * @param window number of months of each average
+	 * @return for each month of the range with scores of the key (from the first to the last), the scores of the
+	 * window of months ending with it. Empty if the key is not in the cube
+	 */
+	public List<Aggregate> rolling(String key, TimeRange range, int window) {
+		List<Aggregate> result = new ArrayList<Aggregate>();
+		MonthlySeries series = key2series.get(key);
+		if(series==null)
+			return result;
+		int from = Math.max(range.getFromMonth(), series.getFirstMonth());
+		int to = Math.min(range.getToMonth(), series.getLastMonth());
+		for(int month=from; month<=to; month++)
+			result.add(series.aggregate(key, month-window+1, month));
+		return result;
+	}
+
+	/**
+	 * @return the k products (or users) with highest average score in the range, among those with at least minReviews scores,
+	 * by descending average then key as in TopProductsTwoPasses
+	 */
+	public List<Aggregate> top(TimeRange range, int k, long minReviews) {
+		final Comparator<Aggregate> descending = new Comparator<Aggregate>() {
+			public int compare(Aggregate a1, Aggregate a2) {
+				double mean1 = a1.getMean();
+				double mean2 = a2.getMean();
+				if (mean1 < mean2) return 1;
+				if (mean1 > mean2) return -1;
+				return a1.getKey().compareTo(a2.getKey());
+			}
+		};
+		//the worst of the top k on the head of the queue
+		PriorityQueue<Aggregate> queue = new PriorityQueue<Aggregate>(k+1, Collections.reverseOrder(descending));
+		for(Map.Entry<String, MonthlySeries> entry: key2series.entrySet()){
+			Aggregate aggregate = entry.getValue().aggregate(entry.getKey(), range.getFromMonth(), range.getToMonth());
+			if(aggregate.getCounter()==0 || aggregate.getCounter()<minReviews)
+				continue;
+			queue.add(aggregate);
+			if(queue.size()>k)
+				queue.remove();
+		}
+		List<Aggregate> result = new ArrayList<Aggregate>(queue);
+		Collections.sort(result, descending);
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(args));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		String query = otherArgs.size()>1 ? otherArgs.get(1) : "";
+		boolean valid = (query.equals("avg") && otherArgs.size()==3)
+				|| (query.equals("rolling") && otherArgs.size()==4)
+				|| (query.equals("top") && (otherArgs.size()==3 || otherArgs.size()==4));
+		if (range==null || !valid) {
+			System.err.println("Usage: MonthlyCube <directory-or-file> [--from yyyy-MM] [--to yyyy-MM] avg <key> | rolling <key> <months> | top <k> [<min-reviews>]");
+			System.exit(2);
+		}
+
+		long start=System.currentTimeMillis();
+		MonthlyCube cube = new MonthlyCube(new File(otherArgs.get(0)));
+		long loaded=System.currentTimeMillis();
+		if(query.equals("avg")){
+			Aggregate aggregate = cube.aggregate(otherArgs.get(2), range);
+			if(aggregate!=null)
+				System.out.println(aggregate);
+		}
+		else if(query.equals("rolling")){
+			for(Aggregate aggregate: cube.rolling(otherArgs.get(2), range, Integer.parseInt(otherArgs.get(3))))
+				System.out.println(aggregate);
+		}
+		else{
+			long minReviews = otherArgs.size()==4 ? Long.parseLong(otherArgs.get(3)) : 1;
+			for(Aggregate aggregate: cube.top(range, Integer.parseInt(otherArgs.get(2)), minReviews))
+				System.out.println(aggregate);
+		}
+		long end=System.currentTimeMillis();
+		System.out.println("#Load time in seconds : "+(loaded-start)/1000.0+", query time in seconds : "+(end-loaded)/1000.0);
+	}
+
+}
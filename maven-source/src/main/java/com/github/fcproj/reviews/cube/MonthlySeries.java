@@ -0,0 +1,123 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The months of a product (or user) in the cube, with prefix sums along time: for the i-th month with at least a score,
+ * number of scores, sum and histogram of all the months up to it. Months without scores are not stored.
+ * The aggregate of any range of months is the difference of two prefix sums, found with two binary searches.
+ *
+ * Serialized as variable length integers: number of months, then for each month the distance from the previous one
+ * and its prefix sums.
+ *
+ * @author fabrizio
+ *
+ */
+public class MonthlySeries implements Writable {
+
+	//counter, sum, then histogram of scores 1 to 5
+	private static final int CELL = 2+MonthCellWritable.SCORES;
+
+	private int[] months = new int[0];
+	private long[] prefix = new long[0];//CELL values for each month
+
+	public MonthlySeries() {
+	}
+
+	/**
+	 * @param cells one cell for each month, sorted by month
+	 */
+	public MonthlySeries(Collection<MonthCellWritable> cells) {
+		months = new int[cells.size()];
+		prefix = new long[cells.size()*CELL];
+		int i = 0;
+		for(MonthCellWritable cell: cells){
+			months[i] = cell.getMonth();
+			int offset = i*CELL;
+			prefix[offset] = cell.getCounter();
+			prefix[offset+1] = cell.getSum();
+			for(int score=1; score<=MonthCellWritable.SCORES; score++)
+				prefix[offset+1+score] = cell.getHistogram(score);
+			if(i>0){
+				for(int j=0; j<CELL; j++)
+					prefix[offset+j] += prefix[offset-CELL+j];
+			}
+			i++;
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		int size = WritableUtils.readVInt(in);
+		months = new int[size];
+		prefix = new long[size*CELL];
+		int month = 0;
+		for(int i=0; i<size; i++){
+			month += WritableUtils.readVInt(in);
+			months[i] = month;
+			for(int j=0; j<CELL; j++)
+				prefix[i*CELL+j] = WritableUtils.readVLong(in);
+		}
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, months.length);
+		int previous = 0;
+		for(int i=0; i<months.length; i++){
+			WritableUtils.writeVInt(out, months[i]-previous);
+			previous = months[i];
+			for(int j=0; j<CELL; j++)
+				WritableUtils.writeVLong(out, prefix[i*CELL+j]);
+		}
+	}
+
+	/**
+	 * @param fromMonth first month, included (see TimeRange.monthIndexOf)
+	 * @param toMonth last month, included
+	 * @return the scores of the months from fromMonth to toMonth
+	 */
+	public Aggregate aggregate(String key, int fromMonth, int toMonth) {
+		//months before the range, and months up to the end of the range
+		int before = fromMonth==Integer.MIN_VALUE ? 0 : count(fromMonth-1);
+		int upTo = count(toMonth);
+		long[] values = new long[CELL];
+		if(upTo>before){
+			for(int j=0; j<CELL; j++)
+				values[j] = prefix[(upTo-1)*CELL+j] - (before==0 ? 0 : prefix[(before-1)*CELL+j]);
+		}
+		long[] histogram = new long[MonthCellWritable.SCORES];
+		System.arraycopy(values, 2, histogram, 0, histogram.length);
+		return new Aggregate(key, fromMonth, toMonth, values[0], values[1], histogram);
+	}
+
+	//number of months <= month
+	private int count(int month){
+		int i = Arrays.binarySearch(months, month);
+		return i>=0 ? i+1 : -i-1;
+	}
+
+	public int size() {
+		return months.length;
+	}
+
+	/**
+	 * @return the first month with a score, Integer.MAX_VALUE if none
+	 */
+	public int getFirstMonth() {
+		return months.length==0 ? Integer.MAX_VALUE : months[0];
+	}
+
+	/**
+	 * @return the last month with a score, Integer.MIN_VALUE if none
+	 */
+	public int getLastMonth() {
+		return months.length==0 ? Integer.MIN_VALUE : months[months.length-1];
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.github.fcproj.reviews.domain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * This object represents the sum of the scores of a product and the number of scores,
+ * so that partial aggregates can be summed by a combiner
+ * @author fabrizio
+ *
+ */
+public class ScoreAggregateWritable implements Writable {
+
+    private long sum;
+    private long counter;
+
+    public ScoreAggregateWritable() {
+    }
+
+    public ScoreAggregateWritable(long sum, long counter) {
+        this.sum = sum;
+        this.counter = counter;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+    	sum = WritableUtils.readVLong(in);
+    	counter = WritableUtils.readVLong(in);
+    }
+
+    public void write(DataOutput out) throws IOException {
+    	WritableUtils.writeVLong(out, sum);
+    	WritableUtils.writeVLong(out, counter);
+    }
+
+    public void set(long sum, long counter) {
+    	this.sum = sum;
+    	this.counter = counter;
+    }
+
+    public double getMean() {
+    	return (double)sum/counter;
+    }
+
+    @Override
+    public String toString() {
+        return getMean() + "\t" + counter;
+    }
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getCounter() {
+		return counter;
+	}
+
+}
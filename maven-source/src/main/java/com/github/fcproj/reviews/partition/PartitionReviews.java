@@ -0,0 +1,150 @@
+package com.github.fcproj.reviews.partition;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+
+/**
+ * Ingest step: lays Amazon Fine Food Review CSV files out as time partitions, so that jobs on a time range
+ * read only the months they need (see TimePartitions).
+ *
+ * The output is:
+ * <directory-out>/year=YYYY/month=MM/part-r-NNNNN with the rows of the month, unchanged
+ * <directory-out>/year=YYYY/month=MM/_stats-r-NNNNN with MINTIME\tMAXTIME\tNUMBEROFREVIEWS
+ * Stats files start with _ so they are ignored by FileInputFormat.
+ *
+ * The input is:
+ * - a directory containing one or more input files
+ * - an output directory
+ *
+ * @author fabrizio
+ *
+ */
+public class PartitionReviews {
+
+	static final String STATS_OUTPUT = "stats";
+
+	/**
+	 * Returns the month (yyyy-MM) of a row, with the row
+	 * @author fabrizio
+	 *
+	 */
+	public static class Mapper1 extends Mapper<LongWritable,Text,Text,Text> {
+
+		private static Text MONTH = new Text();
+
+		@Override
+		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+			String[] cols = (value.toString()).split("\t");
+			//check data correctness
+			if(cols!=null && cols.length==10){
+				try {
+					long date = Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]);
+					MONTH.set(TimeRange.monthOf(date));
+					ctx.write(MONTH, value);
+				}
+				catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the rows of a month in its partition, then the stats of the partition
+	 * @author fabrizio
+	 *
+	 */
+	public static class Reducer1 extends Reducer<Text,Text,NullWritable,Text> {
+
+		private MultipleOutputs<NullWritable, Text> mos;
+		private Text STATS = new Text();
+
+		@Override
+		protected void setup(Context ctx) {
+			mos = new MultipleOutputs<NullWritable, Text>(ctx);
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<Text> values,
+				Context ctx) throws IOException, InterruptedException {
+			String[] parts = key.toString().split("-");
+			String partition = TimePartitions.partition(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			long counter = 0;
+			for(Text row: values){
+				long date = Long.parseLong(row.toString().split("\t")[AmazonFoodReviewsColumns.TIME]);
+				min = Math.min(min, date);
+				max = Math.max(max, date);
+				counter++;
+				mos.write(NullWritable.get(), row, partition+"/part");
+			}
+			STATS.set(min+"\t"+max+"\t"+counter);
+			mos.write(STATS_OUTPUT, NullWritable.get(), STATS, partition+"/"+TimePartitions.STATS);
+		}
+
+		@Override
+		protected void cleanup(Context ctx) throws IOException, InterruptedException {
+			mos.close();
+		}
+	}
+
+	/**
+	 * Do the job
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		long start=System.currentTimeMillis();
+
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: PartitionReviews <directory-in> <directory-out>");
+			System.exit(2);
+		}
+
+		Job job = Job.getInstance(conf);
+		job.setJobName("PartitionReviews");
+		job.setJarByClass(PartitionReviews.class);
+		job.setMapperClass(Mapper1.class);
+		job.setReducerClass(Reducer1.class);
+		job.setInputFormatClass(TextInputFormat.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(Text.class);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(Text.class);
+		//rows are written only through MultipleOutputs: no empty part files in the output directory
+		LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+		MultipleOutputs.addNamedOutput(job, STATS_OUTPUT, TextOutputFormat.class, NullWritable.class, Text.class);
+
+		//a directory containing one or more input files, otherwise we would use addInputPath for a single file
+		FileInputFormat.setInputPaths(job, new Path(otherArgs[0]));
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+
+		int flag = job.waitForCompletion(true) ? 0 : 1;
+		long end=System.currentTimeMillis();
+		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
+
+		System.exit(flag);
+	}
+
+}
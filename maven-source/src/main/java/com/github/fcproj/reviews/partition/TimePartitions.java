@@ -0,0 +1,147 @@
+package com.github.fcproj.reviews.partition;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Partition pruning on the layout written by PartitionReviews:
+ * <directory-in>/year=YYYY/month=MM/part-r-NNNNN, with _stats-r-NNNNN (min time, max time, number of reviews).
+ *
+ * Only the month partitions overlapping the time range go to FileInputFormat. When the range has day bounds,
+ * the stats of a partition allow to skip it if its reviews are all out of the range.
+ * An input directory without year= subdirectories is not partitioned and it is read entirely; rows out of the
+ * range are skipped by the mappers in any case.
+ *
+ * @author fabrizio
+ *
+ */
+public class TimePartitions {
+
+	public static final String YEAR = "year=";
+	public static final String MONTH = "month=";
+	public static final String STATS = "_stats";
+
+	private static final PathFilter YEARS = new PathFilter() {
+		public boolean accept(Path path) {
+			return path.getName().startsWith(YEAR);
+		}
+	};
+
+	private static final PathFilter MONTHS = new PathFilter() {
+		public boolean accept(Path path) {
+			return path.getName().startsWith(MONTH);
+		}
+	};
+
+	private static final PathFilter STATS_FILES = new PathFilter() {
+		public boolean accept(Path path) {
+			return path.getName().startsWith(STATS);
+		}
+	};
+
+	private TimePartitions() {
+	}
+
+	/**
+	 * @return the relative path of the partition of a month (1 to 12)
+	 */
+	public static String partition(int year, int month) {
+		return String.format("%s%04d/%s%02d", YEAR, year, MONTH, month);
+	}
+
+	/**
+	 * Sets the input paths of the job: the partitions of input in the time range, or input itself if it is not partitioned.
+	 * The range is stored in the configuration of the job, for the mappers.
+	 * @return the input paths, empty if no partition is in the range
+	 */
+	public static List<Path> setInputPaths(Job job, Path input, TimeRange range) throws IOException {
+		range.set(job.getConfiguration());
+		List<Path> paths = select(input.getFileSystem(job.getConfiguration()), input, range);
+		if(!paths.isEmpty())
+			FileInputFormat.setInputPaths(job, paths.toArray(new Path[paths.size()]));
+		return paths;
+	}
+
+	/**
+	 * @return the partitions of input in the time range, sorted by time, or input itself if it is not partitioned
+	 */
+	public static List<Path> select(FileSystem fs, Path input, TimeRange range) throws IOException {
+		FileStatus[] years = fs.listStatus(input, YEARS);
+		if(years.length==0)
+			return new ArrayList<Path>(Arrays.asList(input));
+
+		List<Path> result = new ArrayList<Path>();
+		Arrays.sort(years);
+		for(FileStatus year: years){
+			int y = value(year.getPath(), YEAR);
+			if(!year.isDirectory() || y<0)
+				continue;
+			FileStatus[] months = fs.listStatus(year.getPath(), MONTHS);
+			Arrays.sort(months);
+			for(FileStatus month: months){
+				int m = value(month.getPath(), MONTH);
+				if(month.isDirectory() && m>0 && range.containsMonth(y, m) && inStats(fs, month.getPath(), range))
+					result.add(month.getPath());
+			}
+		}
+		return result;
+	}
+
+	private static int value(Path path, String prefix){
+		try {
+			return Integer.parseInt(path.getName().substring(prefix.length()));
+		}
+		catch(NumberFormatException e){
+			return -1;
+		}
+	}
+
+	//false only if the stats of the partition say that all its reviews are out of the range
+	private static boolean inStats(FileSystem fs, Path partition, TimeRange range) throws IOException {
+		if(!range.isBounded())
+			return true;
+		FileStatus[] stats = fs.listStatus(partition, STATS_FILES);
+		if(stats.length==0)
+			return true;
+		for(FileStatus file: stats){
+			long[] minMax = readStats(fs, file.getPath());
+			if(minMax==null || range.overlaps(minMax[0], minMax[1]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return min time, max time and number of reviews of a stats file, null if it is malformed
+	 */
+	public static long[] readStats(FileSystem fs, Path file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			if(line==null)
+				return null;
+			String[] cols = line.split("\t");
+			if(cols.length!=3)
+				return null;
+			return new long[]{Long.parseLong(cols[0]), Long.parseLong(cols[1]), Long.parseLong(cols[2])};
+		}
+		catch(NumberFormatException e){
+			return null;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+}
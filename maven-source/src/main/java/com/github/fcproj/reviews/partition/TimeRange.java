@@ -0,0 +1,205 @@
+package com.github.fcproj.reviews.partition;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A range of review times, from a day or month to a day or month (both included).
+ * Bounds are written as yyyy-MM or yyyy-MM-dd, in the default time zone as the months of TopHighestScore.
+ * A missing bound means no limit.
+ *
+ * Drivers accept the range as --from and --to arguments, and store it in the configuration of the job
+ * so that mappers can skip rows out of the range.
+ *
+ * @author fabrizio
+ *
+ */
+public class TimeRange {
+
+	public static final String FROM = "reviews.time.from";
+	public static final String TO = "reviews.time.to";
+
+	private final String from;
+	private final String to;
+	private final long fromSeconds;//included
+	private final long toSeconds;//excluded
+	private final int fromMonth;//year*12+month-1, included
+	private final int toMonth;//included
+
+	/**
+	 * @param from yyyy-MM or yyyy-MM-dd, null for no lower bound
+	 * @param to yyyy-MM or yyyy-MM-dd, null for no upper bound
+	 * @throws IllegalArgumentException if a bound is malformed or from is after to
+	 */
+	public TimeRange(String from, String to) {
+		this.from = from;
+		this.to = to;
+		if(from!=null){
+			Calendar start = parse(from);
+			this.fromSeconds = start.getTimeInMillis()/1000;
+			this.fromMonth = monthIndex(start);
+		}
+		else{
+			this.fromSeconds = Long.MIN_VALUE;
+			this.fromMonth = Integer.MIN_VALUE;
+		}
+		if(to!=null){
+			Calendar end = parse(to);
+			this.toMonth = monthIndex(end);
+			end.add(isMonth(to) ? Calendar.MONTH : Calendar.DAY_OF_MONTH, 1);
+			this.toSeconds = end.getTimeInMillis()/1000;
+		}
+		else{
+			this.toSeconds = Long.MAX_VALUE;
+			this.toMonth = Integer.MAX_VALUE;
+		}
+		if(fromSeconds>=toSeconds)
+			throw new IllegalArgumentException("Empty time range: "+this);
+	}
+
+	/**
+	 * @return the range with no bounds
+	 */
+	public static TimeRange all() {
+		return new TimeRange(null, null);
+	}
+
+	/**
+	 * Removes --from and --to, with their values, from the command line arguments
+	 * @return the range given by the arguments
+	 * @throws IllegalArgumentException if a value is missing or malformed
+	 */
+	public static TimeRange parse(List<String> args) {
+		return new TimeRange(remove(args, "--from"), remove(args, "--to"));
+	}
+
+	private static String remove(List<String> args, String option){
+		int i = args.indexOf(option);
+		if(i<0)
+			return null;
+		if(i+1>=args.size())
+			throw new IllegalArgumentException("Missing value of "+option);
+		String value = args.get(i+1);
+		args.subList(i, i+2).clear();
+		return value;
+	}
+
+	/**
+	 * @return the range stored in the configuration of the job
+	 */
+	public static TimeRange get(Configuration conf) {
+		return new TimeRange(conf.get(FROM), conf.get(TO));
+	}
+
+	/**
+	 * Stores the range in the configuration of the job
+	 */
+	public void set(Configuration conf) {
+		if(from!=null)
+			conf.set(FROM, from);
+		else
+			conf.unset(FROM);
+		if(to!=null)
+			conf.set(TO, to);
+		else
+			conf.unset(TO);
+	}
+
+	public boolean isBounded() {
+		return from!=null || to!=null;
+	}
+
+	/**
+	 * @param seconds Unix time, as in the TIME column
+	 */
+	public boolean contains(long seconds) {
+		return seconds>=fromSeconds && seconds<toSeconds;
+	}
+
+	/**
+	 * @param month 1 to 12
+	 * @return true if some day of the month is in the range
+	 */
+	public boolean containsMonth(int year, int month) {
+		int index = year*12+month-1;
+		return index>=fromMonth && index<=toMonth;
+	}
+
+	/**
+	 * @return true if some time between min and max (both included) is in the range
+	 */
+	public boolean overlaps(long minSeconds, long maxSeconds) {
+		return maxSeconds>=fromSeconds && minSeconds<toSeconds;
+	}
+
+	/**
+	 * @return the first month of the range, as year*12+month-1 (see monthIndexOf), Integer.MIN_VALUE if unbounded
+	 */
+	public int getFromMonth() {
+		return fromMonth;
+	}
+
+	/**
+	 * @return the last month of the range (included), Integer.MAX_VALUE if unbounded
+	 */
+	public int getToMonth() {
+		return toMonth;
+	}
+
+	/**
+	 * @return the month of a Unix time, as year*12+month-1
+	 */
+	public static int monthIndexOf(long seconds) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(seconds*1000);
+		return monthIndex(calendar);
+	}
+
+	/**
+	 * @return a month index (see monthIndexOf) as yyyy-MM
+	 */
+	public static String formatMonth(int index) {
+		return String.format("%04d-%02d", index/12, index%12+1);
+	}
+
+	/**
+	 * @return the month of a Unix time, as yyyy-MM
+	 */
+	public static String monthOf(long seconds) {
+		return new SimpleDateFormat("yyyy-MM").format(new Date(seconds*1000));
+	}
+
+	private static boolean isMonth(String bound){
+		return bound.length()==7;
+	}
+
+	private static Calendar parse(String bound){
+		SimpleDateFormat sdf = new SimpleDateFormat(isMonth(bound) ? "yyyy-MM" : "yyyy-MM-dd");
+		sdf.setLenient(false);
+		try {
+			if(bound.length()!=7 && bound.length()!=10)
+				throw new ParseException(bound, 0);
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(sdf.parse(bound));
+			return calendar;
+		}
+		catch(ParseException e){
+			throw new IllegalArgumentException("Malformed date, expected yyyy-MM or yyyy-MM-dd: "+bound);
+		}
+	}
+
+	private static int monthIndex(Calendar calendar){
+		return calendar.get(Calendar.YEAR)*12+calendar.get(Calendar.MONTH);
+	}
+
+	@Override
+	public String toString() {
+		return (from==null ? "" : from)+".."+(to==null ? "" : to);
+	}
+
+}
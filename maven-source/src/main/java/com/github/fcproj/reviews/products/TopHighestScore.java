@@ -2,11 +2,10 @@ package com.github.fcproj.reviews.products;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.List;
 import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
@@ -17,13 +16,18 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.aggregation.AggregateCursor;
+import com.github.fcproj.reviews.aggregation.SpillableAggregator;
+import com.github.fcproj.reviews.cache.ResultCache;
 import com.github.fcproj.reviews.domain.ReviewWritable;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+import com.github.fcproj.reviews.store.IndexedResultOutputFormat;
 
 /**
  * Given Amazon Fine Food Review CSV files: for each month, 5 products with highest average score.
@@ -45,6 +49,7 @@ import com.github.fcproj.reviews.domain.ReviewWritable;
 public class TopHighestScore {
 
 	private static final int TOP_K = 5;
+	public static final String TOP_K_KEY = "reviews.top.k";//to change TOP_K
 	
 	/**
 	 * Returns a month with the ReviewWritable object (= productID and the rating)
@@ -54,6 +59,13 @@ public class TopHighestScore {
 	public static class Mapper1 extends Mapper<LongWritable,Text,Text,ReviewWritable> {
 		
 		private static ReviewWritable REVIEW = new ReviewWritable();
+		private TimeRange range;
+
+		@Override
+		protected void setup(Context ctx) {
+			range = TimeRange.get(ctx.getConfiguration());
+		}
+
 		@Override
 		public void map(LongWritable key, Text value, 
 				Context ctx) throws IOException, InterruptedException {
@@ -65,7 +77,7 @@ public class TopHighestScore {
 					int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
 					long date = Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]);
 					String month = null;
-					if(prodID!=null){
+					if(prodID!=null && range.contains(date)){
 						Date time=new Date(date*1000);
 						SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM");
 						month = sdf.format(time);
@@ -89,25 +101,17 @@ public class TopHighestScore {
 	 */
 	public static class Reducer1 extends Reducer<Text,ReviewWritable,Text,ReviewWritable> {
 
-		private Map<String, ProductMean> TimeProduct2Mean = new HashMap<String, ProductMean>();
+		//MONTH \t ProdID -> sum and number of scores, spilled to disk if it grows beyond the memory budget
+		private SpillableAggregator timeProduct2Mean;
+		private int k;//TOP_K, or its value in the configuration
 		private static ReviewWritable REVIEW = new ReviewWritable();
 
 		protected class ProductMean implements Comparable<ProductMean>{
 			String productID;
-			Double sum;//incremental sum of scores for this product
-			Integer counter;//number of ratings
-			Double mean;//mean, to be computed when all products have been parsed
-			ProductMean(String productID, Double sum){
+			double mean;
+			ProductMean(String productID, double sum, long counter){
 				this.productID = productID;
-				this.sum = sum;
-				this.counter = 1;
-			}
-			void increase(Double value){
-				this.sum = this.sum + value;
-				this.counter = this.counter + 1;
-			}
-			void computeMean(){
-				this.mean = this.sum/this.counter;
+				this.mean = sum/counter;
 			}
 			public int compareTo(ProductMean obj) {
 				if (this.mean < obj.mean) return 1;
@@ -119,10 +123,15 @@ public class TopHighestScore {
 			}
 		}
 
+		@Override
+		protected void setup(Context ctx) {
+			timeProduct2Mean = SpillableAggregator.create(ctx.getConfiguration());
+			k = ctx.getConfiguration().getInt(TOP_K_KEY, TOP_K);
+		}
+
 		/*
-		 * Prepare the map that will be parsed in cleanup.
-		 * The map is TIME_ProdID -> ProductMean
-		 * ProductMean contains the product ID and the mean (which must be computed before sorting elements)
+		 * Prepare the aggregates that will be parsed in cleanup.
+		 * The key is TIME \t ProdID, the aggregate is the sum of scores and the number of ratings
 		 * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
 		 */
 		@Override
@@ -131,50 +140,45 @@ public class TopHighestScore {
 
 			for (ReviewWritable value : values) {			
 				//combine month to product ID
-				String productID = value.getProductID().toString();
-				String timeProduct = key.toString()+"_"+productID;
-				if(TimeProduct2Mean.containsKey(timeProduct)){
-					TimeProduct2Mean.get(timeProduct).increase((double)value.getScore().get());
-				}
-				else{
-					TimeProduct2Mean.put(timeProduct, new ProductMean(productID, (double)value.getScore().get()));
-				}
+				String timeProduct = key.toString()+"\t"+value.getProductID().toString();
+				timeProduct2Mean.add(timeProduct, value.getScore().get());
 			}			
 		}
 
 		@Override
 		protected void cleanup(Context ctx) throws IOException, InterruptedException {
 
-			//map time 2 sorted products
-			Map<String, Set<ProductMean>> result = new TreeMap<String, Set<ProductMean>>();
-			for(String time2productID: this.TimeProduct2Mean.keySet()){
-				String[] parts = time2productID.split("_");
-				String time = parts[0];	
-				
-				//it's time to compute the mean
-				ProductMean element = this.TimeProduct2Mean.get(time2productID);
-				element.computeMean();
-
-				//inserting elements in descending order, defined by compareTo of ProductMean
-				if(result.get(time)==null){
-					Set<ProductMean> sortedResults = new TreeSet<ProductMean>();
-					sortedResults.add(element);
-					result.put(time, sortedResults);
+			//keys come sorted by time, then by product: a month at a time, keep only its TOP_K products
+			AggregateCursor cursor = timeProduct2Mean.cursor();
+			try {
+				String currentTime = null;
+				TreeSet<ProductMean> topK = new TreeSet<ProductMean>();
+				while(cursor.next()){
+					String[] parts = cursor.getKey().split("\t");
+					String time = parts[0];
+					if(!time.equals(currentTime)){
+						write(currentTime, topK, ctx);
+						currentTime = time;
+						topK.clear();
+					}
+					//inserting elements in descending order, defined by compareTo of ProductMean
+					topK.add(new ProductMean(parts[1], cursor.getSum(), cursor.getCounter()));
+					if(topK.size()>k)
+						topK.pollLast();
 				}
-				else
-					result.get(time).add(element);	
+				write(currentTime, topK, ctx);
+			}
+			finally {
+				cursor.close();
+				timeProduct2Mean.close();
 			}
+		}
 
-			//getting the TOP_K products per month
-			for(String time: result.keySet()){
-				int counter = 1;
-				for(ProductMean mean: result.get(time)){
-					if(counter>TOP_K)
-						break;
-					REVIEW.set(new Text(mean.productID), new DoubleWritable(mean.mean));
-					ctx.write(new Text(time), REVIEW);
-					counter++;
-				}
+		//getting the TOP_K products of the month
+		private void write(String time, TreeSet<ProductMean> topK, Context ctx) throws IOException, InterruptedException {
+			for(ProductMean mean: topK){
+				REVIEW.set(new Text(mean.productID), new DoubleWritable(mean.mean));
+				ctx.write(new Text(time), REVIEW);
 			}
 		}
 	}
@@ -189,9 +193,16 @@ public class TopHighestScore {
 		long start=System.currentTimeMillis();
 
 		Configuration conf = new Configuration();
-		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
-		if (otherArgs.length != 2) {
-			System.err.println("Usage: TopHighestScore <directory-in> <directory-out>");
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		if (range==null || otherArgs.size() != 2) {
+			System.err.println("Usage: TopHighestScore [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
 			System.exit(2);
 		}
 
@@ -205,12 +216,35 @@ public class TopHighestScore {
 		job.setMapOutputValueClass(ReviewWritable.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(ReviewWritable.class);
+		//text output, or indexed result file if -D reviews.output.indexed=true
+		IndexedResultOutputFormat.configure(job);
 		
-		//a directory containing one or more input files, otherwise we would use addInputPath for a single file
-		FileInputFormat.setInputPaths(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
-		
-		int flag = job.waitForCompletion(true) ? 0 : 1;
+		//a directory containing one or more input files, or only its time partitions in the range (see PartitionReviews)
+		List<Path> inputs = TimePartitions.setInputPaths(job, new Path(otherArgs.get(0)), range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+		Path output = new Path(otherArgs.get(1));
+		FileOutputFormat.setOutputPath(job, output);
+
+		//the job is skipped if the result of the same input files and parameters is in the cache
+		ResultCache cache = new ResultCache(job.getConfiguration());
+		String key = cache.fingerprint(TopHighestScore.class, "result", inputs)
+				.add(TOP_K_KEY, job.getConfiguration().getInt(TOP_K_KEY, TOP_K))
+				.add("range", range)
+				.add(IndexedResultOutputFormat.ENABLED, job.getConfiguration().getBoolean(IndexedResultOutputFormat.ENABLED, false))
+				.getKey();
+		int flag;
+		if(cache.restore(key, output)){
+			System.out.println("#Result found in cache: "+key);
+			flag = 0;
+		}
+		else{
+			flag = job.waitForCompletion(true) ? 0 : 1;
+			if(flag==0)
+				cache.save(key, output);
+		}
 		long end=System.currentTimeMillis();
 		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
 
@@ -0,0 +1,308 @@
+package com.github.fcproj.reviews.products;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.cache.ResultCache;
+import com.github.fcproj.reviews.domain.ScoreAggregateWritable;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * Given Amazon Fine Food Review CSV files: the N products with highest average score in the whole catalog,
+ * among products with at least MIN_REVIEWS reviews, in a time range (--from, --to).
+ * Output: product ID, average score, number of reviews, sorted by average score (descending)
+ *
+ * This is the top k of keys, so two passes are needed:
+ * - pass 1: a reducer gets all the scores of its products (partial sums come from the combiner), and it keeps only
+ *   its local top N in a bounded set, written in cleanup. Every product is in a single reducer, so the global
+ *   top N is among the local ones
+ * - pass 2: a single reducer merges the local top N of pass 1, so it gets at most (reducers of pass 1) x N products
+ *
+ * The output is:
+ * PRODID\tAVERAGESCORE\tREVIEWS
+ *
+ * The input is:
+ * - a directory containing one or more input files
+ * - an output directory
+ *
+ * @author fabrizio
+ *
+ */
+public class TopProductsTwoPasses {
+
+	private static final int TOP_N = 10;
+	public static final String TOP_K_KEY = "reviews.top.k";//to change TOP_N
+	private static final int MIN_REVIEWS = 10;
+	public static final String MIN_REVIEWS_KEY = "reviews.top.min.reviews";//to change MIN_REVIEWS
+
+	/**
+	 * Returns a product ID with its score, as a partial aggregate of one review
+	 * @author fabrizio
+	 *
+	 */
+	public static class Mapper1 extends Mapper<LongWritable,Text,Text,ScoreAggregateWritable> {
+
+		private static ScoreAggregateWritable AGGREGATE = new ScoreAggregateWritable();
+		private static Text PRODID = new Text();
+		private TimeRange range;
+
+		@Override
+		protected void setup(Context ctx) {
+			range = TimeRange.get(ctx.getConfiguration());
+		}
+
+		@Override
+		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+			String[] cols = (value.toString()).split("\t");
+			//check data correctness
+			if(cols!=null && cols.length==10){
+				try {
+					String prodID = cols[AmazonFoodReviewsColumns.PROD_ID];
+					int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
+					//the time is parsed only if rows must be filtered
+					boolean inRange = !range.isBounded() || range.contains(Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]));
+					if(prodID!=null && inRange){
+						AGGREGATE.set(score, 1);
+						PRODID.set(prodID);
+						ctx.write(PRODID, AGGREGATE);
+					}
+				}
+				catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sums the partial aggregates of a product
+	 * @author fabrizio
+	 *
+	 */
+	public static class Combiner1 extends Reducer<Text,ScoreAggregateWritable,Text,ScoreAggregateWritable> {
+
+		private static ScoreAggregateWritable AGGREGATE = new ScoreAggregateWritable();
+
+		@Override
+		public void reduce(Text key, Iterable<ScoreAggregateWritable> values, Context ctx) throws IOException, InterruptedException {
+			long sum = 0;
+			long counter = 0;
+			for (ScoreAggregateWritable value : values) {
+				sum += value.getSum();
+				counter += value.getCounter();
+			}
+			AGGREGATE.set(sum, counter);
+			ctx.write(key, AGGREGATE);
+		}
+	}
+
+	/**
+	 * A product with the aggregate of its scores, ordered by descending average score, then product ID
+	 */
+	static class ProductMean implements Comparable<ProductMean>{
+		final String productID;
+		final long sum;
+		final long counter;
+		final double mean;
+		ProductMean(String productID, long sum, long counter){
+			this.productID = productID;
+			this.sum = sum;
+			this.counter = counter;
+			this.mean = (double)sum/counter;
+		}
+		public int compareTo(ProductMean obj) {
+			if (this.mean < obj.mean) return 1;
+			if (this.mean > obj.mean) return -1;
+			return this.productID.compareTo(obj.productID);
+		}
+		public String toString(){
+			return productID+" mean:"+mean;
+		}
+	}
+
+	/**
+	 * The N products with highest average score among those added with at least minReviews reviews.
+	 * Each product must be added once, with its whole aggregate: the local top N of pass 1 have disjoint products
+	 */
+	static class TopN {
+
+		//descending average score, at most N products
+		private final TreeSet<ProductMean> topN = new TreeSet<ProductMean>();
+		private final int n;
+		private final int minReviews;
+
+		TopN(int n, int minReviews){
+			this.n = n;
+			this.minReviews = minReviews;
+		}
+
+		void add(String productID, long sum, long counter){
+			if(counter<minReviews)
+				return;
+			topN.add(new ProductMean(productID, sum, counter));
+			if(topN.size()>n)
+				topN.pollLast();
+		}
+
+		/**
+		 * @return the products, by descending average score
+		 */
+		Collection<ProductMean> products(){
+			return topN;
+		}
+	}
+
+	/**
+	 * Computes the top N products of the reducer.
+	 * Used in both passes: in pass 1 it gets the partial aggregates of its products, in pass 2 (a single reducer)
+	 * the local top N of every reducer of pass 1
+	 * @author fabrizio
+	 *
+	 */
+	public static class ReducerTopN extends Reducer<Text,ScoreAggregateWritable,Text,ScoreAggregateWritable> {
+
+		private TopN topN;
+		private static ScoreAggregateWritable AGGREGATE = new ScoreAggregateWritable();
+
+		@Override
+		protected void setup(Context ctx) {
+			//TOP_N and MIN_REVIEWS, or their values in the configuration
+			topN = new TopN(ctx.getConfiguration().getInt(TOP_K_KEY, TOP_N), ctx.getConfiguration().getInt(MIN_REVIEWS_KEY, MIN_REVIEWS));
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<ScoreAggregateWritable> values, Context ctx) throws IOException, InterruptedException {
+			long sum = 0;
+			long counter = 0;
+			for (ScoreAggregateWritable value : values) {
+				sum += value.getSum();
+				counter += value.getCounter();
+			}
+			topN.add(key.toString(), sum, counter);
+		}
+
+		//only the top N products leave the reducer
+		@Override
+		protected void cleanup(Context ctx) throws IOException, InterruptedException {
+			for(ProductMean mean: topN.products()){
+				AGGREGATE.set(mean.sum, mean.counter);
+				ctx.write(new Text(mean.productID), AGGREGATE);
+			}
+		}
+	}
+
+	/**
+	 * Do the job
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		long start=System.currentTimeMillis();
+
+		Configuration conf = new Configuration();
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		if (range==null || otherArgs.size() != 2) {
+			System.err.println("Usage: TopProductsTwoPasses [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
+			System.exit(2);
+		}
+
+		Path output = new Path(otherArgs.get(1));
+		ResultCache cache = new ResultCache(conf);
+
+		Job job1 = Job.getInstance(conf);
+		job1.setJobName("TopProductsTwoPasses-pass-1");
+		job1.setJarByClass(TopProductsTwoPasses.class);
+		job1.setMapperClass(Mapper1.class);
+		job1.setCombinerClass(Combiner1.class);
+		job1.setReducerClass(ReducerTopN.class);
+		job1.setInputFormatClass(TextInputFormat.class);
+		job1.setMapOutputKeyClass(Text.class);
+		job1.setMapOutputValueClass(ScoreAggregateWritable.class);
+		job1.setOutputKeyClass(Text.class);
+		job1.setOutputValueClass(ScoreAggregateWritable.class);
+		job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+		//a directory containing one or more input files, or only its time partitions in the range (see PartitionReviews)
+		List<Path> inputs = TimePartitions.setInputPaths(job1, new Path(otherArgs.get(0)), range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+
+		//the jobs are skipped if the result of the same input files and parameters is in the cache
+		String key = cache.fingerprint(TopProductsTwoPasses.class, "result", inputs)
+				.add(TOP_K_KEY, conf.getInt(TOP_K_KEY, TOP_N))
+				.add(MIN_REVIEWS_KEY, conf.getInt(MIN_REVIEWS_KEY, MIN_REVIEWS))
+				.add("range", range)
+				.getKey();
+		if(cache.restore(key, output)){
+			System.out.println("#Result found in cache: "+key);
+			System.out.println("#Execution time in seconds : "+ (System.currentTimeMillis()-start)/1000.0);
+			System.exit(0);
+		}
+
+		//the local top N of pass 1 are small and never reused: a new directory for each run, deleted at the end
+		Path temp1 = cache.reserve(key);
+		int flag;
+		try {
+			FileOutputFormat.setOutputPath(job1, temp1);
+			flag = job1.waitForCompletion(true) ? 0 : 1;
+			if (flag!=0) {
+				System.out.println("Job1 failed, exiting");
+			}
+			else {
+				Job job2 = Job.getInstance(conf, "TopProductsTwoPasses-pass-2");
+				FileInputFormat.setInputPaths(job2, temp1);
+				FileOutputFormat.setOutputPath(job2, output);
+				job2.setJarByClass(TopProductsTwoPasses.class);
+				job2.setMapperClass(Mapper.class);//identity
+				job2.setReducerClass(ReducerTopN.class);
+				job2.setNumReduceTasks(1);
+				job2.setInputFormatClass(SequenceFileInputFormat.class);
+				job2.setMapOutputKeyClass(Text.class);
+				job2.setMapOutputValueClass(ScoreAggregateWritable.class);
+				job2.setOutputKeyClass(Text.class);
+				job2.setOutputValueClass(ScoreAggregateWritable.class);
+				//always text output: the indexed result file needs rows sorted by key, these are sorted by score
+				flag = job2.waitForCompletion(true) ? 0 : 1;
+				if(flag==0)
+					cache.save(key, output);
+			}
+		}
+		finally {
+			cache.discard(temp1);
+		}
+		long end=System.currentTimeMillis();
+		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
+
+		System.exit(flag);
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.github.fcproj.reviews.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.github.fcproj.reviews.domain.ReviewWritable;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+import com.github.fcproj.reviews.products.TopHighestScore;
+import com.github.fcproj.reviews.store.IndexedResultOutputFormat;
+import com.github.fcproj.reviews.users.TopFavouriteProducts;
+
+/**
+ * Preview of TopHighestScore (products) or TopFavouriteProducts (users) on a stratified sample of the input,
+ * to get an approximate result in seconds instead of minutes.
+ * Mappers are the mappers of the two jobs, reading only the rows chosen by Sampler (stratified by month for
+ * products, whole users for users, or as set with -D reviews.sample.by) from the splits chosen by SampledTextInputFormat.
+ * For each month, the reducer computes the top k products by average score with TopKEstimate.
+ * For each user, the reducer computes the top k reviews with TopKReviews, ranked as in TopFavouriteProducts:
+ * by score, then product ID, descending, with no average (a product reviewed twice by the user is two reviews).
+ *
+ * The output for products is:
+ * MONTH \t PRODID \t AVERAGESCORE \t HALFWIDTH \t N \t STABILITY
+ * where the average is in [AVERAGESCORE-HALFWIDTH, AVERAGESCORE+HALFWIDTH] with the given confidence (default 0.95),
+ * N is the number of sampled scores of the product, and STABILITY is the fraction of bootstrap replicates where the product
+ * stays in the top k.
+ * The output for users is:
+ * USER \t PRODID \t SCORE \t N \t STABILITY
+ * where N is the number of sampled reviews of the user. Users are sampled whole, so when all the splits are read the
+ * top k of each user in the output is exact, and only the users are a sample. There is no confidence interval: a score
+ * is not an average, and an interval on the few reviews of a user would cover almost any score. STABILITY tells how much
+ * the top k of the user depends on single reviews, e.g. on the reviews lost with -D reviews.sample.splits below 1.
+ *
+ * The input is:
+ * - products or users
+ * - a directory containing one or more input files
+ * - an output directory
+ *
+ * @author fabrizio
+ *
+ */
+public class Preview {
+
+	public static final String CONFIDENCE = "reviews.sample.confidence";
+	public static final String REPLICATES = "reviews.sample.replicates";
+
+	static enum Rows { READ, SAMPLED }
+
+	/**
+	 * Mapper of TopHighestScore, on the sampled rows only
+	 */
+	public static class ProductsMapper extends TopHighestScore.Mapper1 {
+
+		private Sampler sampler;
+
+		@Override
+		protected void setup(Context ctx) {
+			super.setup(ctx);
+			sampler = new Sampler(ctx.getConfiguration());
+		}
+
+		@Override
+		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+			ctx.getCounter(Rows.READ).increment(1);
+			if(sampler.keep(value.toString(), key.get())){
+				ctx.getCounter(Rows.SAMPLED).increment(1);
+				super.map(key, value, ctx);
+			}
+		}
+	}
+
+	/**
+	 * Mapper of TopFavouriteProducts, on the sampled rows only
+	 */
+	public static class UsersMapper extends TopFavouriteProducts.Mapper1 {
+
+		private Sampler sampler;
+
+		@Override
+		protected void setup(Context ctx) {
+			super.setup(ctx);
+			sampler = new Sampler(ctx.getConfiguration());
+		}
+
+		@Override
+		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+			ctx.getCounter(Rows.READ).increment(1);
+			if(sampler.keep(value.toString(), key.get())){
+				ctx.getCounter(Rows.SAMPLED).increment(1);
+				super.map(key, value, ctx);
+			}
+		}
+	}
+
+	/** ***************************************************************************************
+	 * Computes the estimated top K products for each month
+	 *
+	 * @author fabrizio
+	 *
+	 * ***************************************************************************************/
+	public static class ProductsReducer extends Reducer<Text,ReviewWritable,Text,Text> {
+
+		private TopKEstimate estimate;
+		private long seed;
+		private static Text ESTIMATE = new Text();
+
+		@Override
+		protected void setup(Context ctx) {
+			Configuration conf = ctx.getConfiguration();
+			estimate = new TopKEstimate(conf.getInt(TopHighestScore.TOP_K_KEY, 5), conf.getFloat(CONFIDENCE, 0.95f), conf.getInt(REPLICATES, 20));
+			seed = conf.getLong(Sampler.SEED, 0);
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<ReviewWritable> values, Context ctx) throws IOException, InterruptedException {
+			//replicates depend only on the key and the seed
+			estimate.clear(seed ^ key.toString().hashCode());
+			for (ReviewWritable value : values)
+				estimate.add(value.getProductID().toString(), value.getScore().get());
+			for(TopKEstimate.Estimate product: estimate.top()){
+				ESTIMATE.set(product.toString());
+				ctx.write(key, ESTIMATE);
+			}
+		}
+	}
+
+	/** ***************************************************************************************
+	 * Computes the estimated top K reviews for each user
+	 *
+	 * @author fabrizio
+	 *
+	 * ***************************************************************************************/
+	public static class UsersReducer extends Reducer<Text,ReviewWritable,Text,Text> {
+
+		private TopKReviews estimate;
+		private long seed;
+		private static Text ESTIMATE = new Text();
+
+		@Override
+		protected void setup(Context ctx) {
+			Configuration conf = ctx.getConfiguration();
+			estimate = new TopKReviews(conf.getInt(TopFavouriteProducts.TOP_K_KEY, 10), conf.getInt(REPLICATES, 20));
+			seed = conf.getLong(Sampler.SEED, 0);
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<ReviewWritable> values, Context ctx) throws IOException, InterruptedException {
+			//replicates depend only on the key and the seed
+			estimate.clear(seed ^ key.toString().hashCode());
+			for (ReviewWritable value : values)
+				estimate.add(value.getProductID().toString(), value.getScore().get());
+			for(TopKReviews.Estimate review: estimate.top()){
+				ESTIMATE.set(review.toString());
+				ctx.write(key, ESTIMATE);
+			}
+		}
+	}
+
+	/**
+	 * Do the job
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		long start=System.currentTimeMillis();
+
+		Configuration conf = new Configuration();
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		float confidence = conf.getFloat(CONFIDENCE, 0.95f);
+		if (range==null || otherArgs.size() != 3 || !(otherArgs.get(0).equals("products") || otherArgs.get(0).equals("users"))
+				|| !(confidence>0 && confidence<1)) {
+			System.err.println("Usage: Preview [-D reviews.sample.confidence=0.95 (between 0 and 1, excluded)] products|users [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
+			System.exit(2);
+		}
+		boolean users = otherArgs.get(0).equals("users");
+		//the defaults of TopFavouriteProducts and TopHighestScore
+		String topK = users ? TopFavouriteProducts.TOP_K_KEY : TopHighestScore.TOP_K_KEY;
+		if(conf.get(topK)==null)
+			conf.setInt(topK, users ? 10 : 5);
+		if(conf.get(Sampler.STRATUM)==null)
+			conf.set(Sampler.STRATUM, users ? Sampler.BY_USER : Sampler.BY_MONTH);
+
+		Job job = Job.getInstance(conf);
+		job.setJobName("Preview-"+otherArgs.get(0));
+		job.setJarByClass(Preview.class);
+		job.setMapperClass(users ? UsersMapper.class : ProductsMapper.class);
+		job.setReducerClass(users ? UsersReducer.class : ProductsReducer.class);
+		job.setInputFormatClass(SampledTextInputFormat.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(ReviewWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		//text output, or indexed result file if -D reviews.output.indexed=true
+		IndexedResultOutputFormat.configure(job);
+
+		List<Path> inputs = TimePartitions.setInputPaths(job, new Path(otherArgs.get(1)), range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs.get(2)));
+
+		//not cached: a preview is cheaper than the copy of its result
+		int flag = job.waitForCompletion(true) ? 0 : 1;
+		if(flag==0){
+			Counters counters = job.getCounters();
+			long read = counters.findCounter(Rows.READ).getValue();
+			long sampled = counters.findCounter(Rows.SAMPLED).getValue();
+			System.out.println("#Sampled rows: "+sampled+" of "+read+" read ("+String.format("%.1f", read==0 ? 0.0 : 100.0*sampled/read)+"%)");
+		}
+		long end=System.currentTimeMillis();
+		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
+
+		System.exit(flag);
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.github.fcproj.reviews.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * TextInputFormat reading only a fraction (Sampler.SPLITS) of the splits: whole HDFS blocks are skipped,
+ * so that a preview does not even read most of the input. Splits are chosen by a hash of the seed, the file
+ * and the offset, so the same splits are read at each run. At least one split is always read.
+ *
+ * @author fabrizio
+ *
+ */
+public class SampledTextInputFormat extends TextInputFormat {
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		List<InputSplit> splits = super.getSplits(job);
+		Configuration conf = job.getConfiguration();
+		float fraction = conf.getFloat(Sampler.SPLITS, 1f);
+		if(fraction>=1 || splits.isEmpty())
+			return splits;
+		long seed = conf.getLong(Sampler.SEED, 0);
+		List<InputSplit> sample = new ArrayList<InputSplit>();
+		InputSplit first = null;//the split with the smallest hash, if no split is chosen
+		double min = 1;
+		for(InputSplit split: splits){
+			FileSplit file = (FileSplit)split;
+			double u = Sampler.uniform(seed, file.getPath().toString().hashCode(), file.getStart());
+			if(u<fraction)
+				sample.add(split);
+			if(u<min){
+				min = u;
+				first = split;
+			}
+		}
+		if(sample.isEmpty())
+			sample.add(first);
+		System.out.println("#Sampled splits: "+sample.size()+" of "+splits.size());
+		return sample;
+	}
+
+}
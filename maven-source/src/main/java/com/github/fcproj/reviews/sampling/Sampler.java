@@ -0,0 +1,98 @@
+package com.github.fcproj.reviews.sampling;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * Chooses the rows of a stratified sample of the Amazon Fine Food Review CSV.
+ * Rows are grouped in strata by month or by user, and the choice is a hash of the seed, so the same sample is drawn
+ * at each run:
+ * - by month, a row is kept with probability RATE, by a hash of the month and the position of the row, and the first
+ *   MIN_ROWS rows of each month in a split are always kept, so that small months are not lost
+ * - by user, whole users are kept with probability RATE, by a hash of the user: a user has a few reviews, so a minimum
+ *   per user would keep almost every row, while a user in the sample has all its reviews and its top k is exact
+ *
+ * Not thread safe: an instance for each mapper.
+ *
+ * @author fabrizio
+ *
+ */
+public class Sampler {
+
+	public static final String RATE = "reviews.sample.rate";//fraction of the rows, default 0.1
+	public static final String SPLITS = "reviews.sample.splits";//fraction of the splits, default 1 (see SampledTextInputFormat)
+	public static final String STRATUM = "reviews.sample.by";//month or user, default month
+	public static final String MIN_ROWS = "reviews.sample.min.rows";//rows always kept per month and split, default 10
+	public static final String SEED = "reviews.sample.seed";
+
+	public static final String BY_MONTH = "month";
+	public static final String BY_USER = "user";
+
+	private final double rate;
+	private final boolean byMonth;
+	private final int minRows;
+	private final long seed;
+	//rows kept for each stratum of the split, only until MIN_ROWS
+	private final Map<String, Integer> stratum2rows = new HashMap<String, Integer>();
+
+	public Sampler(Configuration conf) {
+		this.rate = conf.getFloat(RATE, 0.1f);
+		this.byMonth = !BY_USER.equals(conf.get(STRATUM, BY_MONTH));
+		this.minRows = conf.getInt(MIN_ROWS, 10);
+		this.seed = conf.getLong(SEED, 0);
+	}
+
+	/**
+	 * @param row a row of the CSV
+	 * @param position the position of the row in its file
+	 * @return true if the row is in the sample, false if it is not or it is malformed
+	 */
+	public boolean keep(String row, long position) {
+		String[] cols = row.split("\t");
+		if(cols.length!=10)
+			return false;
+		String stratum;
+		try {
+			stratum = byMonth ? TimeRange.monthOf(Long.parseLong(cols[AmazonFoodReviewsColumns.TIME])) : cols[AmazonFoodReviewsColumns.USER_ID];
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+		if(!byMonth)
+			return uniform(seed, stratum.hashCode(), 0) < rate;
+		Integer rows = stratum2rows.get(stratum);
+		int kept = rows==null ? 0 : rows;
+		if(kept<minRows){
+			stratum2rows.put(stratum, kept+1);
+			return true;
+		}
+		return uniform(seed, stratum.hashCode(), position) < rate;
+	}
+
+	/**
+	 * @return a number in [0, 1) from a hash of the arguments
+	 */
+	static double uniform(long a, long b, long c) {
+		long h = mix(a);
+		h = mix(h ^ b);
+		h = mix(h ^ c);
+		return (h >>> 11) / (double)(1L << 53);
+	}
+
+	//finalizer of MurmurHash3, after a multiplication by the golden ratio
+	private static long mix(long h) {
+		h *= 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe1a85ec5L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.github.fcproj.reviews.sampling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Top k products by average score computed on a sample, with the accuracy of the result:
+ * - the confidence interval of each average, mean +/- z*s/sqrt(n) (normal approximation)
+ * - the rank stability of each product, the fraction of bootstrap replicates of the sample where the product
+ *   is still in the top k. Replicates are drawn as a Poisson bootstrap: each score has weight Poisson(1) in
+ *   each replicate, so they are computed in the same pass, without keeping the scores.
+ * Used for the products of a month; the reviews of a user are not averaged, see TopKReviews.
+ *
+ * Not thread safe: an instance for each reducer, cleared for each key.
+ *
+ * @author fabrizio
+ *
+ */
+public class TopKEstimate {
+
+	//scores are from 1 to 5: with less than 2 scores, the interval covers any average
+	private static final double MAX_HALF_WIDTH = 4.0;
+
+	/**
+	 * A product of the top k
+	 */
+	public static class Estimate {
+		private final String productID;
+		private final double mean;
+		private final double halfWidth;
+		private final long n;
+		private final double stability;
+		Estimate(String productID, double mean, double halfWidth, long n, double stability){
+			this.productID = productID;
+			this.mean = mean;
+			this.halfWidth = halfWidth;
+			this.n = n;
+			this.stability = stability;
+		}
+		public String getProductID() {
+			return productID;
+		}
+		public double getMean() {
+			return mean;
+		}
+		public double getHalfWidth() {
+			return halfWidth;
+		}
+		public long getN() {
+			return n;
+		}
+		public double getStability() {
+			return stability;
+		}
+		/**
+		 * PRODID \t MEAN \t HALFWIDTH \t N \t STABILITY
+		 */
+		public String toString(){
+			return String.format("%s\t%.4f\t%.4f\t%d\t%.2f", productID, mean, halfWidth, n, stability);
+		}
+	}
+
+	private class Product {
+		final String productID;
+		long n;
+		double sum;
+		double sumSquares;
+		final double[] replicateSum = new double[replicates];
+		final int[] replicateCounter = new int[replicates];
+		Product(String productID){
+			this.productID = productID;
+		}
+		double mean(){
+			return sum/n;
+		}
+		double mean(int replicate){
+			return replicateSum[replicate]/replicateCounter[replicate];
+		}
+	}
+
+	private final int k;
+	private final int replicates;
+	private final double z;
+	private final Map<String, Product> products = new HashMap<String, Product>();
+	private Random random;
+
+	/**
+	 * @param k number of products
+	 * @param confidence of the intervals, e.g. 0.95
+	 * @param replicates number of bootstrap replicates for the rank stability
+	 */
+	public TopKEstimate(int k, double confidence, int replicates) {
+		this.k = k;
+		this.replicates = replicates;
+		this.z = z(confidence);
+	}
+
+	/**
+	 * Starts a new key
+	 * @param seed of the replicates, the same seed gives the same replicates
+	 */
+	public void clear(long seed) {
+		products.clear();
+		random = new Random(seed);
+	}
+
+	public void add(String productID, double score) {
+		Product product = products.get(productID);
+		if(product==null){
+			product = new Product(productID);
+			products.put(productID, product);
+		}
+		product.n++;
+		product.sum += score;
+		product.sumSquares += score*score;
+		for(int i=0; i<replicates; i++){
+			int weight = poisson();
+			product.replicateSum[i] += weight*score;
+			product.replicateCounter[i] += weight;
+		}
+	}
+
+	/**
+	 * @return the k products with highest average, by descending average then product ID as in TopHighestScore
+	 */
+	public List<Estimate> top() {
+		List<Product> sorted = new ArrayList<Product>(products.values());
+		Collections.sort(sorted, new Comparator<Product>() {
+			public int compare(Product p1, Product p2) {
+				return compareMeans(p1.mean(), p1.productID, p2.mean(), p2.productID);
+			}
+		});
+		List<Product> top = sorted.subList(0, Math.min(k, sorted.size()));
+
+		//how many times each product of the top k is in the top k of a replicate
+		Map<Product, Integer> hits = new HashMap<Product, Integer>();
+		for(int i=0; i<replicates; i++){
+			for(Product product: topOfReplicate(i)){
+				Integer h = hits.get(product);
+				hits.put(product, h==null ? 1 : h+1);
+			}
+		}
+
+		List<Estimate> result = new ArrayList<Estimate>(top.size());
+		for(Product product: top){
+			Integer h = hits.get(product);
+			double stability = replicates==0 ? 1.0 : (h==null ? 0 : h)/(double)replicates;
+			result.add(new Estimate(product.productID, product.mean(), halfWidth(product), product.n, stability));
+		}
+		return result;
+	}
+
+	//top k of a replicate: a queue with the worst product on top, and at most k products
+	private PriorityQueue<Product> topOfReplicate(final int replicate){
+		PriorityQueue<Product> queue = new PriorityQueue<Product>(k+1, new Comparator<Product>() {
+			public int compare(Product p1, Product p2) {
+				return compareMeans(p2.mean(replicate), p2.productID, p1.mean(replicate), p1.productID);
+			}
+		});
+		for(Product product: products.values()){
+			//a product with no score in the replicate is not in it
+			if(product.replicateCounter[replicate]==0)
+				continue;
+			queue.add(product);
+			if(queue.size()>k)
+				queue.remove();
+		}
+		return queue;
+	}
+
+	//descending mean, then ascending product ID
+	private static int compareMeans(double mean1, String id1, double mean2, String id2){
+		if (mean1 < mean2) return 1;
+		if (mean1 > mean2) return -1;
+		return id1.compareTo(id2);
+	}
+
+	private double halfWidth(Product product){
+		if(product.n<2)
+			return MAX_HALF_WIDTH;
+		double variance = Math.max(0, (product.sumSquares - product.sum*product.sum/product.n)/(product.n-1));
+		return Math.min(MAX_HALF_WIDTH, z*Math.sqrt(variance/product.n));
+	}
+
+	//Poisson(1), by inversion
+	private int poisson(){
+		double u = random.nextDouble();
+		double p = Math.exp(-1);
+		double cdf = p;
+		int x = 0;
+		while(u>cdf && x<20){
+			x++;
+			p /= x;
+			cdf += p;
+		}
+		return x;
+	}
+
+	/**
+	 * @return the quantile of the standard normal distribution for a two sided interval
+	 * (Abramowitz and Stegun 26.2.23, error less than 4.5e-4)
+	 */
+	static double z(double confidence) {
+		double p = (1-confidence)/2;
+		double t = Math.sqrt(-2*Math.log(p));
+		return t - (2.515517 + 0.802853*t + 0.010328*t*t)/(1 + 1.432788*t + 0.189269*t*t + 0.001308*t*t*t);
+	}
+
+}
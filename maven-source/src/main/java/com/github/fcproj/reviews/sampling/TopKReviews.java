@@ -0,0 +1,133 @@
+package com.github.fcproj.reviews.sampling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+
+import com.github.fcproj.reviews.domain.ReviewWritable;
+
+/**
+ * Top k reviews of a user computed on a sample, as in TopFavouriteProducts.Reducer1: reviews are ranked by
+ * ReviewWritable order (score, then product ID, descending), and a product reviewed twice is two reviews.
+ * The accuracy of the result is the rank stability of each review, the fraction of bootstrap replicates of the sample
+ * where the review is still in the top k (a review is in a replicate with probability 1-1/e, as in a Poisson bootstrap).
+ * There is no confidence interval: each review is a single score.
+ *
+ * Each replicate keeps only a bounded queue, so the memory is O(k x replicates) whatever the number of reviews.
+ *
+ * Not thread safe: an instance for each reducer, cleared for each key.
+ *
+ * @author fabrizio
+ *
+ */
+public class TopKReviews {
+
+	//probability that a review is not in a replicate, Poisson(1)=0
+	private static final double ABSENT = Math.exp(-1);
+
+	/**
+	 * A review of the top k
+	 */
+	public static class Estimate {
+		private final ReviewWritable review;
+		private final long n;
+		private final double stability;
+		Estimate(ReviewWritable review, long n, double stability){
+			this.review = review;
+			this.n = n;
+			this.stability = stability;
+		}
+		public ReviewWritable getReview() {
+			return review;
+		}
+		public long getN() {
+			return n;
+		}
+		public double getStability() {
+			return stability;
+		}
+		/**
+		 * PRODID \t SCORE \t N \t STABILITY
+		 */
+		public String toString(){
+			return String.format("%s\t%d\t%.2f", review, n, stability);
+		}
+	}
+
+	private final int k;
+	private final List<PriorityQueue<ReviewWritable>> replicates;
+	private final PriorityQueue<ReviewWritable> queue;
+	private long n;
+	private Random random;
+
+	/**
+	 * @param k number of reviews
+	 * @param replicates number of bootstrap replicates for the rank stability
+	 */
+	public TopKReviews(int k, int replicates) {
+		this.k = k;
+		this.queue = new PriorityQueue<ReviewWritable>(k+1);
+		this.replicates = new ArrayList<PriorityQueue<ReviewWritable>>(replicates);
+		for(int i=0; i<replicates; i++)
+			this.replicates.add(new PriorityQueue<ReviewWritable>(k+1));
+	}
+
+	/**
+	 * Starts a new key
+	 * @param seed of the replicates, the same seed gives the same replicates
+	 */
+	public void clear(long seed) {
+		queue.clear();
+		for(PriorityQueue<ReviewWritable> replicate: replicates)
+			replicate.clear();
+		n = 0;
+		random = new Random(seed);
+	}
+
+	public void add(String productID, double score) {
+		//a new object for each review: queues keep references, and stability counts them by identity
+		ReviewWritable review = new ReviewWritable(new Text(productID), new DoubleWritable(score));
+		n++;
+		add(queue, review);
+		for(PriorityQueue<ReviewWritable> replicate: replicates)
+			if(random.nextDouble()>=ABSENT)
+				add(replicate, review);
+	}
+
+	//smaller on top, at most k reviews
+	private void add(PriorityQueue<ReviewWritable> queue, ReviewWritable review){
+		queue.add(review);
+		if (queue.size() > k)
+			queue.remove();
+	}
+
+	/**
+	 * @return the k reviews with highest score, in descending ReviewWritable order as TopFavouriteProducts
+	 */
+	public List<Estimate> top() {
+		Map<ReviewWritable, Integer> hits = new IdentityHashMap<ReviewWritable, Integer>();
+		for(PriorityQueue<ReviewWritable> replicate: replicates){
+			for(ReviewWritable review: replicate){
+				Integer h = hits.get(review);
+				hits.put(review, h==null ? 1 : h+1);
+			}
+		}
+		List<ReviewWritable> sorted = new ArrayList<ReviewWritable>(queue);
+		Collections.sort(sorted, Collections.reverseOrder());
+		List<Estimate> result = new ArrayList<Estimate>(sorted.size());
+		for(ReviewWritable review: sorted){
+			Integer h = hits.get(review);
+			double stability = replicates.isEmpty() ? 1.0 : (h==null ? 0 : h)/(double)replicates.size();
+			result.add(new Estimate(review, n, stability));
+		}
+		return result;
+	}
+
+}
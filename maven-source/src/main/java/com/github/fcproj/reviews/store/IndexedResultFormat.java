@@ -0,0 +1,94 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of an indexed result file, shared by writer and reader.
+ *
+ * HEADER | BLOCK_1 ... BLOCK_n | INDEX | FOOTER
+ * - header: MAGIC, VERSION
+ * - block: deflated sequence of records (vint key length, key, vint value length, value), sorted by key
+ * - index: for each block, first key, offset, compressed length, raw length, number of records
+ * - footer: index offset, number of blocks, number of records, MAGIC
+ *
+ * Keys are compared as unsigned UTF-8 bytes, which is the order of Text keys in the shuffle.
+ *
+ * @author fabrizio
+ *
+ */
+final class IndexedResultFormat {
+
+	static final int MAGIC = 0x41464652;//"AFFR"
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 8;
+	static final int FOOTER_LENGTH = 24;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private IndexedResultFormat(){
+	}
+
+	static byte[] bytes(String s){
+		return s.getBytes(UTF8);
+	}
+
+	static String string(byte[] b){
+		return new String(b, UTF8);
+	}
+
+	/**
+	 * Unsigned lexicographic comparison of two byte arrays
+	 */
+	static int compare(byte[] a, byte[] b){
+		int n = Math.min(a.length, b.length);
+		for(int i=0; i<n; i++){
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if(cmp!=0)
+				return cmp;
+		}
+		return a.length - b.length;
+	}
+
+	static boolean startsWith(byte[] key, byte[] prefix){
+		if(key.length<prefix.length)
+			return false;
+		for(int i=0; i<prefix.length; i++)
+			if(key[i]!=prefix[i])
+				return false;
+		return true;
+	}
+
+	static void writeVInt(DataOutput out, int value) throws IOException {
+		while((value & ~0x7f)!=0){
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVInt(DataInput in) throws IOException {
+		int value = 0;
+		for(int shift=0; shift<32; shift+=7){
+			int b = in.readByte();
+			value |= (b & 0x7f) << shift;
+			if((b & 0x80)==0)
+				return value;
+		}
+		throw new IOException("Malformed vint");
+	}
+
+	static int readVInt(ByteBuffer in) throws IOException {
+		int value = 0;
+		for(int shift=0; shift<32; shift+=7){
+			int b = in.get();
+			value |= (b & 0x7f) << shift;
+			if((b & 0x80)==0)
+				return value;
+		}
+		throw new IOException("Malformed vint");
+	}
+
+}
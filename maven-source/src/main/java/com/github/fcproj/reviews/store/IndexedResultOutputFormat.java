@@ -0,0 +1,65 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the reducer output as an indexed result file (part-r-NNNNN.idx) instead of a text file.
+ * Key and value are stored as in TextOutputFormat (toString), so the content is the same of the text output.
+ * The reducer must write keys in ascending order, which is true for the jobs of this project: keys come
+ * sorted from the shuffle, or are written from a TreeMap in cleanup().
+ *
+ * Enabled in drivers with -D reviews.output.indexed=true
+ *
+ * @author fabrizio
+ *
+ */
+public class IndexedResultOutputFormat<K, V> extends FileOutputFormat<K, V> {
+
+	public static final String ENABLED = "reviews.output.indexed";
+	public static final String BLOCK_SIZE = "reviews.output.indexed.block.size";
+	public static final String EXTENSION = ".idx";
+
+	/**
+	 * Sets this output format if enabled in the configuration of the job
+	 */
+	public static void configure(Job job) {
+		if(job.getConfiguration().getBoolean(ENABLED, false))
+			job.setOutputFormatClass(IndexedResultOutputFormat.class);
+	}
+
+	@Override
+	public RecordWriter<K, V> getRecordWriter(TaskAttemptContext job) throws IOException, InterruptedException {
+		Configuration conf = job.getConfiguration();
+		Path file = getDefaultWorkFile(job, EXTENSION);
+		FSDataOutputStream out = file.getFileSystem(conf).create(file, false);
+		return new IndexedRecordWriter<K, V>(new IndexedResultWriter(out, conf.getInt(BLOCK_SIZE, IndexedResultWriter.DEFAULT_BLOCK_SIZE)));
+	}
+
+	protected static class IndexedRecordWriter<K, V> extends RecordWriter<K, V> {
+
+		private final IndexedResultWriter writer;
+
+		public IndexedRecordWriter(IndexedResultWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(K key, V value) throws IOException, InterruptedException {
+			writer.append(key==null ? "" : key.toString(), value==null ? "" : value.toString());
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+			writer.close();
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Memory-maps an indexed result file (see IndexedResultWriter) and answers point and prefix lookups.
+ * The sparse index is kept on heap and searched with a binary search, then only the blocks that can
+ * contain the key are inflated. Inflated blocks are kept in a LRU cache of at most maxCachedBlocks blocks.
+ *
+ * Examples of lookups on job outputs:
+ * - TopFavouriteProducts: get(userID), top 10 products of a user
+ * - TopHighestScore: get("2011-05"), top 5 products of a month
+ * - UserAffinityTwoPasses: prefix(userID+"\t"), couples whose first user is userID. Couples are written once,
+ *   with user1<user2, so the partners of userID with a smaller ID are not found (see IndexedResultSet.couples)
+ *
+ * The file must be on the local file system (e.g. copied with hdfs dfs -get) and smaller than 2 GB.
+ * Thread safe.
+ *
+ * @author fabrizio
+ *
+ */
+public class IndexedResultReader implements Closeable {
+
+	public static final int DEFAULT_CACHED_BLOCKS = 64;
+
+	/**
+	 * A record of the file
+	 */
+	public static class Entry {
+		private final String key;
+		private final String value;
+		Entry(String key, String value){
+			this.key = key;
+			this.value = value;
+		}
+		public String getKey() {
+			return key;
+		}
+		public String getValue() {
+			return value;
+		}
+		@Override
+		public String toString(){
+			return key+"\t"+value;
+		}
+	}
+
+	//an inflated block
+	private static class Block {
+		final byte[][] keys;
+		final byte[][] values;
+		Block(int records){
+			keys = new byte[records][];
+			values = new byte[records][];
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+
+	//sparse index
+	private final byte[][] firstKeys;
+	private final long[] offsets;
+	private final int[] compressedLengths;
+	private final int[] rawLengths;
+	private final int[] blockRecords;
+	private final long records;
+
+	private final Map<Integer, Block> cache;
+
+	public IndexedResultReader(File file) throws IOException {
+		this(file, DEFAULT_CACHED_BLOCKS);
+	}
+
+	public IndexedResultReader(File file, final int maxCachedBlocks) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if(length>Integer.MAX_VALUE)
+				throw new IOException("File too large to be mapped: "+file);
+			if(length<IndexedResultFormat.HEADER_LENGTH+IndexedResultFormat.FOOTER_LENGTH)
+				throw new IOException("Not an indexed result file: "+file);
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+			//header and footer
+			if(buffer.getInt(0)!=IndexedResultFormat.MAGIC || buffer.getInt((int)length-4)!=IndexedResultFormat.MAGIC)
+				throw new IOException("Not an indexed result file: "+file);
+			if(buffer.getInt(4)!=IndexedResultFormat.VERSION)
+				throw new IOException("Unsupported version "+buffer.getInt(4)+": "+file);
+			ByteBuffer footer = buffer.duplicate();
+			footer.position((int)length-IndexedResultFormat.FOOTER_LENGTH);
+			long indexOffset = footer.getLong();
+			int blocks = footer.getInt();
+			this.records = footer.getLong();
+
+			//index
+			this.firstKeys = new byte[blocks][];
+			this.offsets = new long[blocks];
+			this.compressedLengths = new int[blocks];
+			this.rawLengths = new int[blocks];
+			this.blockRecords = new int[blocks];
+			ByteBuffer index = buffer.duplicate();
+			index.position((int)indexOffset);
+			for(int i=0; i<blocks; i++){
+				firstKeys[i] = new byte[IndexedResultFormat.readVInt(index)];
+				index.get(firstKeys[i]);
+				offsets[i] = index.getLong();
+				compressedLengths[i] = index.getInt();
+				rawLengths[i] = index.getInt();
+				blockRecords[i] = index.getInt();
+			}
+		}
+		catch(IOException e){
+			raf.close();
+			throw e;
+		}
+		catch(RuntimeException e){
+			raf.close();
+			throw new IOException("Corrupted indexed result file: "+file, e);
+		}
+
+		//access ordered map, evicting the least recently used block
+		this.cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+				return size()>maxCachedBlocks;
+			}
+		};
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return all the values of key, in write order (empty if the key does not exist)
+	 */
+	public List<String> get(String key) throws IOException {
+		List<String> result = new ArrayList<String>();
+		for(Entry entry: scan(IndexedResultFormat.bytes(key), false))
+			result.add(entry.getValue());
+		return result;
+	}
+
+	/**
+	 * @return all the records whose key starts with prefix, sorted by key
+	 */
+	public List<Entry> prefix(String prefix) throws IOException {
+		return scan(IndexedResultFormat.bytes(prefix), true);
+	}
+
+	private List<Entry> scan(byte[] target, boolean isPrefix) throws IOException {
+		List<Entry> result = new ArrayList<Entry>();
+		int start = startBlock(target);
+		for(int b=start; b<firstKeys.length; b++){
+			Block block = block(b);
+			int i = b==start ? lowerBound(block, target) : 0;
+			for(; i<block.keys.length; i++){
+				byte[] key = block.keys[i];
+				boolean match = isPrefix ? IndexedResultFormat.startsWith(key, target) : IndexedResultFormat.compare(key, target)==0;
+				if(!match)
+					return result;
+				result.add(new Entry(IndexedResultFormat.string(key), IndexedResultFormat.string(block.values[i])));
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * The last block whose first key is smaller than target: records equal to target
+	 * may start at the end of that block and continue in the following ones
+	 */
+	private int startBlock(byte[] target){
+		int low = 0;
+		int high = firstKeys.length-1;
+		int found = 0;
+		while(low<=high){
+			int mid = (low+high)>>>1;
+			if(IndexedResultFormat.compare(firstKeys[mid], target)<0){
+				found = mid;
+				low = mid+1;
+			}
+			else
+				high = mid-1;
+		}
+		return found;
+	}
+
+	//first record of the block which is not smaller than target
+	private static int lowerBound(Block block, byte[] target){
+		int low = 0;
+		int high = block.keys.length;
+		while(low<high){
+			int mid = (low+high)>>>1;
+			if(IndexedResultFormat.compare(block.keys[mid], target)<0)
+				low = mid+1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private Block block(int b) throws IOException {
+		synchronized(cache){
+			Block block = cache.get(b);
+			if(block!=null)
+				return block;
+		}
+		Block block = inflate(b);
+		synchronized(cache){
+			cache.put(b, block);
+		}
+		return block;
+	}
+
+	private Block inflate(int b) throws IOException {
+		byte[] compressed = new byte[compressedLengths[b]];
+		ByteBuffer slice = buffer.duplicate();
+		slice.position((int)offsets[b]);
+		slice.get(compressed);
+		byte[] raw = new byte[rawLengths[b]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int n = 0;
+			while(n<raw.length && !inflater.finished()){
+				int read = inflater.inflate(raw, n, raw.length-n);
+				if(read==0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if(n!=raw.length)
+				throw new IOException("Truncated block "+b+" in "+file);
+		}
+		catch(DataFormatException e){
+			throw new IOException("Corrupted block "+b+" in "+file, e);
+		}
+		finally {
+			inflater.end();
+		}
+
+		Block block = new Block(blockRecords[b]);
+		ByteBuffer in = ByteBuffer.wrap(raw);
+		for(int i=0; i<blockRecords[b]; i++){
+			block.keys[i] = new byte[IndexedResultFormat.readVInt(in)];
+			in.get(block.keys[i]);
+			block.values[i] = new byte[IndexedResultFormat.readVInt(in)];
+			in.get(block.values[i]);
+		}
+		return block;
+	}
+
+	/**
+	 * Releases the file. The mapping itself is released when the reader is garbage collected
+	 */
+	public void close() throws IOException {
+		synchronized(cache){
+			cache.clear();
+		}
+		raf.close();
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The indexed result files (part-r-*.idx) of a job output directory, copied on the local file system.
+ * Each reducer writes its own sorted file and a key can be in any of them, so lookups query all the files.
+ *
+ * Command line usage:
+ * IndexedResultSet <directory-or-file> get <key>
+ * IndexedResultSet <directory-or-file> prefix <prefix>
+ * IndexedResultSet <directory-or-file> couples <userid>
+ *
+ * @author fabrizio
+ *
+ */
+public class IndexedResultSet implements Closeable {
+
+	private final List<IndexedResultReader> readers = new ArrayList<IndexedResultReader>();
+
+	public IndexedResultSet(File path) throws IOException {
+		this(path, IndexedResultReader.DEFAULT_CACHED_BLOCKS);
+	}
+
+	/**
+	 * @param path a job output directory or a single indexed result file
+	 * @param maxCachedBlocks cache size of each file
+	 */
+	public IndexedResultSet(File path, int maxCachedBlocks) throws IOException {
+		File[] files;
+		if(path.isDirectory()){
+			files = path.listFiles(new FileFilter() {
+				public boolean accept(File f) {
+					return f.isFile() && f.getName().startsWith("part-") && f.getName().endsWith(IndexedResultOutputFormat.EXTENSION);
+				}
+			});
+			if(files==null)
+				throw new IOException("Cannot list "+path);
+			Arrays.sort(files);
+		}
+		else
+			files = new File[]{path};
+		try {
+			for(File file: files)
+				readers.add(new IndexedResultReader(file, maxCachedBlocks));
+		}
+		catch(IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return all the values of key
+	 */
+	public List<String> get(String key) throws IOException {
+		List<String> result = new ArrayList<String>();
+		for(IndexedResultReader reader: readers)
+			result.addAll(reader.get(key));
+		return result;
+	}
+
+	/**
+	 * @return all the records whose key starts with prefix, grouped by file
+	 */
+	public List<IndexedResultReader.Entry> prefix(String prefix) throws IOException {
+		List<IndexedResultReader.Entry> result = new ArrayList<IndexedResultReader.Entry>();
+		for(IndexedResultReader reader: readers)
+			result.addAll(reader.prefix(prefix));
+		return result;
+	}
+
+	/**
+	 * Couples of UserAffinityTwoPasses whose first user is userID. The key of a couple is user1 \t user2 with user1<user2,
+	 * so the couples where userID is the second user (its partners with a smaller ID) are not returned
+	 * @return all the records whose key is userID \t another user
+	 */
+	public List<IndexedResultReader.Entry> couples(String userID) throws IOException {
+		//the tab stops the prefix at the end of the ID: userID is not a prefix of a longer ID
+		return prefix(userID+"\t");
+	}
+
+	public void close() throws IOException {
+		IOException error = null;
+		for(IndexedResultReader reader: readers){
+			try {
+				reader.close();
+			}
+			catch(IOException e){
+				error = e;
+			}
+		}
+		readers.clear();
+		if(error!=null)
+			throw error;
+	}
+
+	/**
+	 * Lookup from the command line
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3 || !(args[1].equals("get") || args[1].equals("prefix") || args[1].equals("couples"))) {
+			System.err.println("Usage: IndexedResultSet <directory-or-file> get <key> | prefix <prefix> | couples <userid>");
+			System.exit(2);
+		}
+		IndexedResultSet set = new IndexedResultSet(new File(args[0]));
+		try {
+			if(args[1].equals("get")){
+				for(String value: set.get(args[2]))
+					System.out.println(args[2]+"\t"+value);
+			}
+			else{
+				List<IndexedResultReader.Entry> entries = args[1].equals("couples") ? set.couples(args[2]) : set.prefix(args[2]);
+				for(IndexedResultReader.Entry entry: entries)
+					System.out.println(entry);
+			}
+		}
+		finally {
+			set.close();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes key/value records, already sorted by key, into an indexed result file (see IndexedResultFormat).
+ * Records are buffered in blocks of about blockSize raw bytes; each block is deflated and its first key
+ * goes to the sparse index written at the end of the file.
+ * Several records may have the same key (e.g. the top 10 products of a user): they are kept in write order.
+ *
+ * @author fabrizio
+ *
+ */
+public class IndexedResultWriter implements Closeable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final DataOutputStream out;
+	private final int blockSize;
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+	//current block
+	private final ByteArrayOutputStream rawBlock = new ByteArrayOutputStream();
+	private final DataOutputStream rawOut = new DataOutputStream(rawBlock);
+	private byte[] blockFirstKey;
+	private int blockRecords;
+
+	//sparse index
+	private final List<byte[]> firstKeys = new ArrayList<byte[]>();
+	private final List<long[]> blocks = new ArrayList<long[]>();//offset, compressed length, raw length, records
+
+	private long position;//DataOutputStream.size() is an int
+	private byte[] lastKey;
+	private long records;
+	private boolean closed;
+
+	public IndexedResultWriter(OutputStream out) throws IOException {
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	public IndexedResultWriter(OutputStream out, int blockSize) throws IOException {
+		if(blockSize<=0)
+			throw new IllegalArgumentException("Block size must be positive: "+blockSize);
+		this.out = new DataOutputStream(out);
+		this.blockSize = blockSize;
+		this.out.writeInt(IndexedResultFormat.MAGIC);
+		this.out.writeInt(IndexedResultFormat.VERSION);
+		this.position = IndexedResultFormat.HEADER_LENGTH;
+	}
+
+	/**
+	 * Appends a record. Keys must be given in non-decreasing order
+	 * @throws IOException if the key is smaller than the previous one
+	 */
+	public void append(String key, String value) throws IOException {
+		byte[] k = IndexedResultFormat.bytes(key);
+		if(lastKey!=null && IndexedResultFormat.compare(lastKey, k)>0)
+			throw new IOException("Keys are not sorted: '"+key+"' after '"+IndexedResultFormat.string(lastKey)+"'");
+		byte[] v = IndexedResultFormat.bytes(value);
+		if(blockRecords==0)
+			blockFirstKey = k;
+		IndexedResultFormat.writeVInt(rawOut, k.length);
+		rawOut.write(k);
+		IndexedResultFormat.writeVInt(rawOut, v.length);
+		rawOut.write(v);
+		blockRecords++;
+		records++;
+		lastKey = k;
+		if(rawBlock.size()>=blockSize)
+			flushBlock();
+	}
+
+	private void flushBlock() throws IOException {
+		if(blockRecords==0)
+			return;
+		byte[] raw = rawBlock.toByteArray();
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		byte[] buffer = new byte[Math.max(64, raw.length/2)];
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffer.length);
+		while(!deflater.finished()){
+			int n = deflater.deflate(buffer);
+			compressed.write(buffer, 0, n);
+		}
+		firstKeys.add(blockFirstKey);
+		blocks.add(new long[]{position, compressed.size(), raw.length, blockRecords});
+		compressed.writeTo(out);
+		position += compressed.size();
+		rawBlock.reset();
+		blockRecords = 0;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Flushes the last block, then writes index and footer
+	 */
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		try {
+			flushBlock();
+			long indexOffset = position;
+			for(int i=0; i<blocks.size(); i++){
+				byte[] firstKey = firstKeys.get(i);
+				long[] block = blocks.get(i);
+				IndexedResultFormat.writeVInt(out, firstKey.length);
+				out.write(firstKey);
+				out.writeLong(block[0]);
+				out.writeInt((int)block[1]);
+				out.writeInt((int)block[2]);
+				out.writeInt((int)block[3]);
+			}
+			out.writeLong(indexOffset);
+			out.writeInt(blocks.size());
+			out.writeLong(records);
+			out.writeInt(IndexedResultFormat.MAGIC);
+		}
+		finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+}
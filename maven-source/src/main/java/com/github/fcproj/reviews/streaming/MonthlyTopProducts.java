@@ -0,0 +1,143 @@
+package com.github.fcproj.reviews.streaming;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+
+import com.github.fcproj.reviews.domain.ReviewWritable;
+
+/**
+ * Live version of TopHighestScore: average score of each product in each month, updated one review at a time.
+ * For each month, products are kept in a TreeSet sorted by average (descending), then by product ID, as in
+ * TopHighestScore. A review removes its product from the set, updates sum and counter, and inserts it again:
+ * O(log n), and the top k products of a month are always the first k elements of the set.
+ *
+ * Not thread safe.
+ *
+ * @author fabrizio
+ *
+ */
+public class MonthlyTopProducts {
+
+	private static class ProductMean implements Comparable<ProductMean> {
+		final String productID;
+		long sum;
+		long counter;
+		ProductMean(String productID){
+			this.productID = productID;
+		}
+		double mean(){
+			return (double)sum/counter;
+		}
+		public int compareTo(ProductMean obj) {
+			double mean = mean();
+			double other = obj.mean();
+			if (mean < other) return 1;
+			if (mean > other) return -1;
+			return this.productID.compareTo(obj.productID);
+		}
+	}
+
+	private static class Month {
+		final Map<String, ProductMean> products = new HashMap<String, ProductMean>();
+		final TreeSet<ProductMean> sorted = new TreeSet<ProductMean>();
+	}
+
+	//sorted by month, as the output of TopHighestScore
+	private final Map<String, Month> months = new TreeMap<String, Month>();
+	private long reviews;
+
+	/**
+	 * Adds the score of a product in a month (yyyy-MM)
+	 */
+	public void add(String month, String productID, long score) {
+		add(month, productID, score, 1);
+	}
+
+	private void add(String month, String productID, long sum, long counter) {
+		Month m = months.get(month);
+		if(m==null){
+			m = new Month();
+			months.put(month, m);
+		}
+		ProductMean product = m.products.get(productID);
+		if(product==null){
+			product = new ProductMean(productID);
+			m.products.put(productID, product);
+		}
+		else
+			//the position in the set depends on the mean: remove before changing it
+			m.sorted.remove(product);
+		product.sum += sum;
+		product.counter += counter;
+		m.sorted.add(product);
+		reviews += counter;
+	}
+
+	/**
+	 * @return the k products with highest average score in month, with their average
+	 */
+	public List<ReviewWritable> top(String month, int k) {
+		List<ReviewWritable> result = new ArrayList<ReviewWritable>(k);
+		Month m = months.get(month);
+		if(m==null)
+			return result;
+		Iterator<ProductMean> it = m.sorted.iterator();
+		while(it.hasNext() && result.size()<k){
+			ProductMean product = it.next();
+			result.add(new ReviewWritable(new Text(product.productID), new DoubleWritable(product.mean())));
+		}
+		return result;
+	}
+
+	/**
+	 * @return all the months, sorted
+	 */
+	public List<String> getMonths() {
+		return new ArrayList<String>(months.keySet());
+	}
+
+	public long getReviews() {
+		return reviews;
+	}
+
+	/**
+	 * Writes sum and counter of every product of every month
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(months.size());
+		for(Map.Entry<String, Month> month: months.entrySet()){
+			out.writeUTF(month.getKey());
+			out.writeInt(month.getValue().products.size());
+			for(ProductMean product: month.getValue().products.values()){
+				out.writeUTF(product.productID);
+				out.writeLong(product.sum);
+				out.writeLong(product.counter);
+			}
+		}
+	}
+
+	/**
+	 * Adds the content written by write()
+	 */
+	public void readFields(DataInput in) throws IOException {
+		int nMonths = in.readInt();
+		for(int i=0; i<nMonths; i++){
+			String month = in.readUTF();
+			int nProducts = in.readInt();
+			for(int j=0; j<nProducts; j++)
+				add(month, in.readUTF(), in.readLong(), in.readLong());
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.github.fcproj.reviews.streaming;
+
+/**
+ * Throughput and update-to-visible latency of the streaming mode.
+ * The latency of a review is the time from when it is read from the source to when the update is visible to queries.
+ * Latencies are counted in a histogram with buckets of powers of 2 microseconds, so percentiles are upper bounds
+ * within a factor of 2.
+ *
+ * Thread safe.
+ *
+ * @author fabrizio
+ *
+ */
+public class StreamingMetrics {
+
+	private static final int BUCKETS = 40;
+
+	private final long start = System.nanoTime();
+	private long total;
+	private long discarded;
+
+	//since the last report
+	private long intervalStart = start;
+	private long counter;
+	private long latencySum;
+	private long latencyMax;
+	private final long[] histogram = new long[BUCKETS];
+
+	/**
+	 * A review was applied
+	 * @param latencyNanos time from read to visible
+	 */
+	public synchronized void applied(long latencyNanos) {
+		total++;
+		counter++;
+		latencySum += latencyNanos;
+		latencyMax = Math.max(latencyMax, latencyNanos);
+		long micros = Math.max(1, latencyNanos/1000);
+		histogram[Math.min(BUCKETS-1, 63-Long.numberOfLeadingZeros(micros))]++;
+	}
+
+	/**
+	 * A malformed row was skipped
+	 */
+	public synchronized void discarded() {
+		discarded++;
+	}
+
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the metrics of the current interval, without starting a new one: for queries
+	 */
+	public synchronized String snapshot() {
+		return format(System.nanoTime());
+	}
+
+	/**
+	 * @return the metrics since the last report, then starts a new interval: for the periodic report only
+	 */
+	public synchronized String report() {
+		long now = System.nanoTime();
+		String report = format(now);
+		intervalStart = now;
+		counter = 0;
+		latencySum = 0;
+		latencyMax = 0;
+		for(int i=0; i<BUCKETS; i++)
+			histogram[i] = 0;
+		return report;
+	}
+
+	private String format(long now){
+		double seconds = Math.max(1e-9, (now-intervalStart)/1e9);
+		double totalSeconds = Math.max(1e-9, (now-start)/1e9);
+		return String.format("reviews=%d discarded=%d throughput=%.1f/s (overall %.1f/s) latency avg=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms",
+				total, discarded, counter/seconds, total/totalSeconds,
+				counter==0 ? 0.0 : latencySum/(double)counter/1e6,
+				percentile(0.50), percentile(0.99), latencyMax/1e6);
+	}
+
+	//upper bound of the bucket of the percentile, in milliseconds
+	private double percentile(double p){
+		long rank = (long)Math.ceil(p*counter);
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++){
+			seen += histogram[i];
+			if(seen>=rank && seen>0)
+				return (1L << (i+1))/1000.0;
+		}
+		return 0.0;
+	}
+
+}
@@ -0,0 +1,365 @@
+package com.github.fcproj.reviews.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.github.fcproj.reviews.domain.ReviewWritable;
+
+/**
+ * Continuous mode: reviews are read as they arrive, and the top products of each month (as TopHighestScore)
+ * and of each user (as TopFavouriteProducts) are updated one review at a time, instead of at the next batch run.
+ *
+ * Sources, on the local machine:
+ * - --dir: a watched directory. New files, and rows appended to existing files, are read every second
+ * - --port: a socket on localhost, each connection sends rows of the Amazon Fine Food Review CSV
+ *
+ * The state is written in a snapshot every --snapshot-interval seconds and at shutdown, and it is loaded at
+ * startup: with a watched directory, reading restarts from where the snapshot was taken.
+ * Every --metrics-interval seconds, throughput and update-to-visible latency are printed.
+ *
+ * Queries on --query-port (localhost), one per line, answered with rows as in the output of the batch jobs
+ * and an empty line:
+ * - month yyyy-MM: top 5 products of the month
+ * - user USERID: top 10 products of the user
+ * - months: months with at least a review
+ * - metrics: throughput and latency since the last periodic report (a query does not start a new interval)
+ *
+ * @author fabrizio
+ *
+ */
+public class StreamingReviews {
+
+	private static final int MONTH_TOP_K = 5;//as TopHighestScore
+	private static final int USER_TOP_K = 10;//as TopFavouriteProducts
+	private static final int QUEUE_SIZE = 10000;
+	private static final long POLL_INTERVAL = 1000;
+
+	/**
+	 * A row read from a source, waiting to be applied
+	 */
+	static class Review {
+		final String row;
+		final String source;
+		final long position;
+		final long readNanos = System.nanoTime();
+		Review(String row, String source, long position){
+			this.row = row;
+			this.source = source;
+			this.position = position;
+		}
+	}
+
+	/** ***************************************************************************************
+	 * Reads complete rows from the files of a directory, from the position of each file in the state
+	 *
+	 * @author fabrizio
+	 *
+	 * ***************************************************************************************/
+	static class DirectorySource implements Runnable {
+		private final File dir;
+		private final BlockingQueue<Review> queue;
+		private final StreamingState state;
+		private final Map<String, Long> positions = new HashMap<String, Long>();
+
+		DirectorySource(File dir, BlockingQueue<Review> queue, StreamingState state){
+			this.dir = dir;
+			this.queue = queue;
+			this.state = state;
+		}
+
+		public void run() {
+			try {
+				while(true){
+					File[] files = dir.listFiles(new FileFilter() {
+						public boolean accept(File f) {
+							return f.isFile() && !f.getName().startsWith(".") && !f.getName().startsWith("_");
+						}
+					});
+					if(files!=null){
+						Arrays.sort(files);
+						for(File file: files)
+							read(file);
+					}
+					Thread.sleep(POLL_INTERVAL);
+				}
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void read(File file) throws InterruptedException {
+			String source = "file:"+file.getName();
+			Long position = positions.get(source);
+			if(position==null)
+				position = state.getProgress(source);
+			if(file.length()<=position)
+				return;
+			try {
+				FileInputStream fis = new FileInputStream(file);
+				try {
+					fis.getChannel().position(position);
+					InputStream in = new BufferedInputStream(fis);
+					ByteArrayOutputStream line = new ByteArrayOutputStream();
+					long consumed = position;
+					int b;
+					while((b = in.read())!=-1){
+						consumed++;
+						if(b=='\n'){
+							String row = line.toString("UTF-8");
+							if(row.endsWith("\r"))
+								row = row.substring(0, row.length()-1);
+							queue.put(new Review(row, source, consumed));
+							line.reset();
+							position = consumed;
+						}
+						else
+							line.write(b);
+					}
+					//an incomplete last row is read again at the next poll
+				}
+				finally {
+					fis.close();
+				}
+			}
+			catch(IOException e){
+				System.err.println("Cannot read "+file+": "+e.getMessage());
+			}
+			positions.put(source, position);
+		}
+	}
+
+	/** ***************************************************************************************
+	 * Reads rows from the connections to a local socket
+	 *
+	 * @author fabrizio
+	 *
+	 * ***************************************************************************************/
+	static class SocketSource implements Runnable {
+		private final ServerSocket server;
+		private final BlockingQueue<Review> queue;
+		private long rows;
+
+		SocketSource(int port, BlockingQueue<Review> queue) throws IOException {
+			this.server = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+			this.queue = queue;
+		}
+
+		public void run() {
+			while(!server.isClosed()){
+				try {
+					final Socket socket = server.accept();
+					Thread connection = new Thread(new Runnable() {
+						public void run() {
+							read(socket);
+						}
+					}, "source-"+socket.getPort());
+					connection.setDaemon(true);
+					connection.start();
+				}
+				catch(IOException e){
+					System.err.println("Socket source: "+e.getMessage());
+				}
+			}
+		}
+
+		private void read(Socket socket) {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				try {
+					String row;
+					while((row = in.readLine())!=null)
+						queue.put(new Review(row, "socket", next()));
+				}
+				finally {
+					socket.close();
+				}
+			}
+			catch(IOException e){
+				System.err.println("Socket source: "+e.getMessage());
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		//rows sent on a socket cannot be read again: the position is only a counter
+		private synchronized long next(){
+			return ++rows;
+		}
+	}
+
+	/** ***************************************************************************************
+	 * Answers queries on a local socket
+	 *
+	 * @author fabrizio
+	 *
+	 * ***************************************************************************************/
+	static class QueryServer implements Runnable {
+		private final ServerSocket server;
+		private final StreamingState state;
+		private final StreamingMetrics metrics;
+
+		QueryServer(int port, StreamingState state, StreamingMetrics metrics) throws IOException {
+			this.server = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+			this.state = state;
+			this.metrics = metrics;
+		}
+
+		public void run() {
+			while(!server.isClosed()){
+				try {
+					Socket socket = server.accept();
+					try {
+						answer(socket);
+					}
+					finally {
+						socket.close();
+					}
+				}
+				catch(IOException e){
+					System.err.println("Query server: "+e.getMessage());
+				}
+			}
+		}
+
+		private void answer(Socket socket) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			String query;
+			while((query = in.readLine())!=null){
+				String[] parts = query.trim().split("\\s+", 2);
+				if(parts[0].equals("month") && parts.length==2){
+					for(ReviewWritable review: state.topOfMonth(parts[1]))
+						out.print(parts[1]+"\t"+review+"\n");
+				}
+				else if(parts[0].equals("user") && parts.length==2){
+					for(ReviewWritable review: state.topOfUser(parts[1]))
+						out.print(parts[1]+"\t"+review+"\n");
+				}
+				else if(parts[0].equals("months")){
+					for(String month: state.getMonths())
+						out.print(month+"\n");
+				}
+				else if(parts[0].equals("metrics"))
+					out.print(metrics.snapshot()+"\n");
+				else if(parts[0].equals("quit"))
+					break;
+				else
+					out.print("Unknown query. Use: month yyyy-MM | user USERID | months | metrics | quit\n");
+				out.print("\n");
+				out.flush();
+			}
+			out.flush();
+		}
+	}
+
+	private static String option(List<String> args, String option, String defaultValue){
+		int i = args.indexOf(option);
+		if(i<0 || i+1>=args.size())
+			return defaultValue;
+		String value = args.get(i+1);
+		args.subList(i, i+2).clear();
+		return value;
+	}
+
+	private static void start(Runnable runnable, String name){
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Runs until it is killed
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(args));
+		String dir = option(otherArgs, "--dir", null);
+		String port = option(otherArgs, "--port", null);
+		final File snapshot = new File(option(otherArgs, "--snapshot", "streaming.snapshot"));
+		long snapshotInterval = Long.parseLong(option(otherArgs, "--snapshot-interval", "60"))*1000;
+		String queryPort = option(otherArgs, "--query-port", null);
+		long metricsInterval = Long.parseLong(option(otherArgs, "--metrics-interval", "10"))*1000;
+		if (!otherArgs.isEmpty() || (dir==null)==(port==null)) {
+			System.err.println("Usage: StreamingReviews (--dir <directory> | --port <port>) [--snapshot <file>] [--snapshot-interval <seconds>] "
+					+ "[--query-port <port>] [--metrics-interval <seconds>]");
+			System.exit(2);
+		}
+
+		final StreamingState state = new StreamingState(MONTH_TOP_K, USER_TOP_K);
+		if(snapshot.exists()){
+			long start=System.currentTimeMillis();
+			state.recover(snapshot);
+			System.out.println("#Recovered from "+snapshot+" in seconds : "+(System.currentTimeMillis()-start)/1000.0);
+		}
+		StreamingMetrics metrics = new StreamingMetrics();
+
+		//sources fill the queue, this thread applies reviews one at a time
+		BlockingQueue<Review> queue = new ArrayBlockingQueue<Review>(QUEUE_SIZE);
+		if(dir!=null)
+			start(new DirectorySource(new File(dir), queue, state), "source-"+dir);
+		else
+			start(new SocketSource(Integer.parseInt(port), queue), "source-"+port);
+		if(queryPort!=null)
+			start(new QueryServer(Integer.parseInt(queryPort), state, metrics), "queries");
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					state.snapshot(snapshot);
+				}
+				catch(IOException e){
+					System.err.println("Cannot write snapshot: "+e.getMessage());
+				}
+			}
+		});
+
+		long nextSnapshot = System.currentTimeMillis()+snapshotInterval;
+		long nextMetrics = System.currentTimeMillis()+metricsInterval;
+		while(true){
+			Review review = queue.poll(100, TimeUnit.MILLISECONDS);
+			if(review!=null){
+				if(state.apply(review.row, review.source, review.position))
+					metrics.applied(System.nanoTime()-review.readNanos);
+				else
+					metrics.discarded();
+			}
+			long now = System.currentTimeMillis();
+			if(now>=nextSnapshot){
+				long start = System.currentTimeMillis();
+				state.snapshot(snapshot);
+				System.out.println("#Snapshot in seconds : "+(System.currentTimeMillis()-start)/1000.0);
+				nextSnapshot = now+snapshotInterval;
+			}
+			if(now>=nextMetrics){
+				System.out.println("#"+metrics.report());
+				nextMetrics = now+metricsInterval;
+			}
+		}
+	}
+
+}
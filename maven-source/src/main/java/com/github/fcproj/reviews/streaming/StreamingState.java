@@ -0,0 +1,149 @@
+package com.github.fcproj.reviews.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.domain.ReviewWritable;
+import com.github.fcproj.reviews.partition.TimeRange;
+
+/**
+ * State of the streaming mode: live top products per month and per user, and the progress of each source
+ * (e.g. the offset reached in each file of the watched directory).
+ * The progress of a source is updated with the review, so a snapshot is always consistent: after a recovery,
+ * sources restart from the progress in the snapshot and no review is counted twice.
+ *
+ * Thread safe: updates, queries and snapshots are serialized.
+ *
+ * @author fabrizio
+ *
+ */
+public class StreamingState {
+
+	private static final int MAGIC = 0x41465353;//"AFSS"
+	private static final int VERSION = 1;
+
+	private final int monthK;
+	private final MonthlyTopProducts months = new MonthlyTopProducts();
+	private final UserTopProducts users;
+	private final Map<String, Long> progress = new HashMap<String, Long>();
+
+	/**
+	 * @param monthK number of products per month (5 in TopHighestScore)
+	 * @param userK number of products per user (10 in TopFavouriteProducts)
+	 */
+	public StreamingState(int monthK, int userK) {
+		this.monthK = monthK;
+		this.users = new UserTopProducts(userK);
+	}
+
+	/**
+	 * Applies a row of the Amazon Fine Food Review CSV
+	 * @param source the source of the row
+	 * @param position the progress of the source after this row
+	 * @return false if the row is malformed (the progress is updated anyway)
+	 */
+	public synchronized boolean apply(String row, String source, long position) {
+		progress.put(source, position);
+		String[] cols = row.split("\t");
+		//check data correctness
+		if(cols.length!=10)
+			return false;
+		try {
+			String userID = cols[AmazonFoodReviewsColumns.USER_ID];
+			String prodID = cols[AmazonFoodReviewsColumns.PROD_ID];
+			int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
+			long date = Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]);
+			months.add(TimeRange.monthOf(date), prodID, score);
+			users.add(userID, prodID, score);
+			return true;
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+	}
+
+	/**
+	 * @return the products with highest average score in a month (yyyy-MM)
+	 */
+	public synchronized List<ReviewWritable> topOfMonth(String month) {
+		return months.top(month, monthK);
+	}
+
+	/**
+	 * @return the favourite products of a user
+	 */
+	public synchronized List<ReviewWritable> topOfUser(String userID) {
+		return users.top(userID);
+	}
+
+	public synchronized List<String> getMonths() {
+		return months.getMonths();
+	}
+
+	/**
+	 * @return the progress of a source, 0 if unknown
+	 */
+	public synchronized long getProgress(String source) {
+		Long position = progress.get(source);
+		return position==null ? 0 : position;
+	}
+
+	/**
+	 * Writes the state in file. The snapshot is written in a temporary file then renamed,
+	 * so a crash never leaves a partial snapshot
+	 */
+	public synchronized void snapshot(File file) throws IOException {
+		File tmp = new File(file.getPath()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(progress.size());
+			for(Map.Entry<String, Long> source: progress.entrySet()){
+				out.writeUTF(source.getKey());
+				out.writeLong(source.getValue());
+			}
+			months.write(out);
+			users.write(out);
+		}
+		finally {
+			out.close();
+		}
+		if(!tmp.renameTo(file)){
+			//renameTo does not replace an existing file on every platform
+			file.delete();
+			if(!tmp.renameTo(file))
+				throw new IOException("Cannot rename "+tmp+" to "+file);
+		}
+	}
+
+	/**
+	 * Loads a snapshot written by snapshot()
+	 */
+	public synchronized void recover(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt()!=MAGIC || in.readInt()!=VERSION)
+				throw new IOException("Not a snapshot: "+file);
+			int sources = in.readInt();
+			for(int i=0; i<sources; i++)
+				progress.put(in.readUTF(), in.readLong());
+			months.readFields(in);
+			users.readFields(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.github.fcproj.reviews.streaming;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+
+import com.github.fcproj.reviews.domain.ReviewWritable;
+
+/**
+ * Live version of TopFavouriteProducts: for each user, the k products with the highest score, updated one review at a time.
+ * As in TopFavouriteProducts.Reducer1, each user has a queue with the smaller score on top and at most k elements,
+ * so an update is O(log k) and the memory is bounded by k per user.
+ *
+ * Not thread safe.
+ *
+ * @author fabrizio
+ *
+ */
+public class UserTopProducts {
+
+	private final int k;
+	private final Map<String, PriorityQueue<ReviewWritable>> user2queue = new HashMap<String, PriorityQueue<ReviewWritable>>();
+
+	public UserTopProducts(int k) {
+		this.k = k;
+	}
+
+	/**
+	 * Adds the score given by a user to a product
+	 */
+	public void add(String userID, String productID, double score) {
+		PriorityQueue<ReviewWritable> queue = user2queue.get(userID);
+		if(queue==null){
+			queue = new PriorityQueue<ReviewWritable>(k+1);
+			user2queue.put(userID, queue);
+		}
+		queue.add(new ReviewWritable(new Text(productID), new DoubleWritable(score)));
+		if (queue.size() > k) {
+			//remove the head, so the smallest score
+			queue.remove();
+		}
+	}
+
+	/**
+	 * @return the favourite products of a user, by descending score
+	 */
+	public List<ReviewWritable> top(String userID) {
+		PriorityQueue<ReviewWritable> queue = user2queue.get(userID);
+		if(queue==null)
+			return new ArrayList<ReviewWritable>();
+		List<ReviewWritable> result = new ArrayList<ReviewWritable>(queue);
+		Collections.sort(result, Collections.reverseOrder());
+		return result;
+	}
+
+	public int getUsers() {
+		return user2queue.size();
+	}
+
+	/**
+	 * Writes the queue of every user
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(user2queue.size());
+		for(Map.Entry<String, PriorityQueue<ReviewWritable>> user: user2queue.entrySet()){
+			out.writeUTF(user.getKey());
+			out.writeInt(user.getValue().size());
+			for(ReviewWritable review: user.getValue()){
+				out.writeUTF(review.getProductID().toString());
+				out.writeDouble(review.getScore().get());
+			}
+		}
+	}
+
+	/**
+	 * Adds the content written by write()
+	 */
+	public void readFields(DataInput in) throws IOException {
+		int users = in.readInt();
+		for(int i=0; i<users; i++){
+			String userID = in.readUTF();
+			int products = in.readInt();
+			for(int j=0; j<products; j++)
+				add(userID, in.readUTF(), in.readDouble());
+		}
+	}
+
+}
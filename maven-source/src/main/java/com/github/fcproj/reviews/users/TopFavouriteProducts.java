@@ -2,9 +2,8 @@ package com.github.fcproj.reviews.users;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
 
 import org.apache.hadoop.conf.Configuration;
@@ -15,13 +14,16 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import com.github.fcproj.reviews.AmazonFoodReviewsColumns;
+import com.github.fcproj.reviews.cache.ResultCache;
 import com.github.fcproj.reviews.domain.ReviewWritable;
+import com.github.fcproj.reviews.partition.TimePartitions;
+import com.github.fcproj.reviews.partition.TimeRange;
+import com.github.fcproj.reviews.store.IndexedResultOutputFormat;
 
 /**
  * Given Amazon Fine Food Review CSV files: for each user, 10 preferred products (with highest score)
@@ -44,6 +46,7 @@ import com.github.fcproj.reviews.domain.ReviewWritable;
 public class TopFavouriteProducts {
 
 	private static final int TOP_K = 10;
+	public static final String TOP_K_KEY = "reviews.top.k";//to change TOP_K
 
 	/** ***************************************************************************************
 	 * Returns a userid with the object rating (=productID and the score)
@@ -61,6 +64,12 @@ public class TopFavouriteProducts {
 		//garbage collection
 		private static ReviewWritable REVIEW = new ReviewWritable();
 		private static Text USERID = new Text();
+		private TimeRange range;
+
+		@Override
+		protected void setup(Context ctx) {
+			range = TimeRange.get(ctx.getConfiguration());
+		}
 
 		@Override
 		public void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
@@ -71,7 +80,9 @@ public class TopFavouriteProducts {
 					String userID = cols[AmazonFoodReviewsColumns.USER_ID];
 					String prodID = cols[AmazonFoodReviewsColumns.PROD_ID];
 					int score = Integer.parseInt(cols[AmazonFoodReviewsColumns.SCORE]);
-					if(prodID!=null && userID!=null){
+					//the time is parsed only if rows must be filtered
+					boolean inRange = !range.isBounded() || range.contains(Long.parseLong(cols[AmazonFoodReviewsColumns.TIME]));
+					if(prodID!=null && userID!=null && inRange){
 						REVIEW.set(new Text(prodID), new DoubleWritable(score));
 						USERID.set(userID);
 						ctx.write(USERID, REVIEW);
@@ -92,26 +103,26 @@ public class TopFavouriteProducts {
 	 * ***************************************************************************************/
 	public static class Reducer1 extends Reducer<Text,ReviewWritable,Text,ReviewWritable> {
 
-		//queue to sort products
-		private Map<String, PriorityQueue<ReviewWritable>> user2queue;
-		private Text USER_ID = new Text();
+		//queue to sort products of the current userid
+		private PriorityQueue<ReviewWritable> queue;
+		private List<ReviewWritable> topKProducts;
+		private int k;//TOP_K, or its value in the configuration
 
 		@Override
 		protected void setup(Context ctx) { 
-			user2queue = new TreeMap<String, PriorityQueue<ReviewWritable>>();
+			k = ctx.getConfiguration().getInt(TOP_K_KEY, TOP_K);
+			queue = new PriorityQueue<ReviewWritable>(k+1);
+			topKProducts = new ArrayList<ReviewWritable>(k);
 		}
 
-		//compute the ordered queue of TOP_K element for each userid
+		//compute the ordered queue of TOP_K element for the userid, then send results to the output.
+		//All the scores of a userid come in a single call and userids come sorted, so nothing must be kept until cleanup():
+		//the memory of the reducer is bounded by TOP_K, whatever the number of users
 		@Override
 		public void reduce(Text key, Iterable<ReviewWritable> values, 
 				Context ctx) throws IOException, InterruptedException {	
 			
-			//get the userid queue
-			PriorityQueue<ReviewWritable> queue = user2queue.get(key.toString());
-			if(queue==null){
-				queue = new PriorityQueue<ReviewWritable>(TOP_K);
-				user2queue.put(key.toString(), queue);
-			}
+			queue.clear();
 			//for each product
 			for (ReviewWritable value : values) {
 				//add the score in the queue: smaller on top, bigger on tail
@@ -120,37 +131,21 @@ public class TopFavouriteProducts {
 				//in addition, tmp cannot be defined as class variable for the same reason, we keep a reference in a queue so we need a new object
 				ReviewWritable tmp = new ReviewWritable(new Text(value.getProductID().toString()), new DoubleWritable(value.getScore().get()));
 				queue.add(tmp);
-				if (queue.size() > TOP_K) {
+				if (queue.size() > k) {
 					//remove the head, so the smallest score
 					queue.remove();
 				}
 			}	
-		}
 
-		//reverse sort the queue for each useris and send results to the output
-		@Override
-		protected void cleanup(Context ctx) 
-				throws IOException, InterruptedException {	
+			//feed the list from the queue 
+			topKProducts.clear();
+			while (!queue.isEmpty()) {
+				topKProducts.add(queue.remove());
+			}
 			
-			for(String userID: user2queue.keySet()){
-				
-				List<ReviewWritable> topKProducts = new ArrayList<ReviewWritable>();
-				USER_ID.set(userID);
-				
-				//feed the list from the queue 
-				PriorityQueue<ReviewWritable> queue = user2queue.get(userID);
-				while (!queue.isEmpty()) {
-					topKProducts.add(queue.remove());
-				}
-				
-				//scan from last to first, to get descending order
-				for (int i = topKProducts.size() - 1; i >= 0; i--) {
-					ReviewWritable prod = topKProducts.get(i);		
-					//we need to create a new ReviewWritable, or only the last object will be considered
-					//in addition, tmp cannot be defined as class variable for the same reason, we keep a reference in a queue so we need a new object
-					ReviewWritable tmp = new ReviewWritable(new Text(prod.getProductID().toString()), new DoubleWritable(prod.getScore().get()));					
-					ctx.write(USER_ID, tmp);
-				}
+			//scan from last to first, to get descending order
+			for (int i = topKProducts.size() - 1; i >= 0; i--) {
+				ctx.write(key, topKProducts.get(i));
 			}
 		}
 	}
@@ -165,9 +160,16 @@ public class TopFavouriteProducts {
 		long start=System.currentTimeMillis();
 
 		Configuration conf = new Configuration();
-		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
-		if (otherArgs.length != 2) {
-			System.err.println("Usage: TopFavouriteProducts <directory-in> <directory-out>");
+		List<String> otherArgs = new ArrayList<String>(Arrays.asList(new GenericOptionsParser(conf, args).getRemainingArgs()));
+		TimeRange range = null;
+		try {
+			range = TimeRange.parse(otherArgs);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+		}
+		if (range==null || otherArgs.size() != 2) {
+			System.err.println("Usage: TopFavouriteProducts [--from yyyy-MM[-dd]] [--to yyyy-MM[-dd]] <directory-in> <directory-out>");
 			System.exit(2);
 		}
 		
@@ -184,12 +186,35 @@ public class TopFavouriteProducts {
 		job.setMapOutputValueClass(ReviewWritable.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(ReviewWritable.class);
-
-		//a directory containing one or more input files, otherwise we would use addInputPath for a single file
-		FileInputFormat.setInputPaths(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
-
-		int flag =  job.waitForCompletion(true) ? 0 : 1;
+		//text output, or indexed result file if -D reviews.output.indexed=true
+		IndexedResultOutputFormat.configure(job);
+
+		//a directory containing one or more input files, or only its time partitions in the range (see PartitionReviews)
+		List<Path> inputs = TimePartitions.setInputPaths(job, new Path(otherArgs.get(0)), range);
+		if(inputs.isEmpty()){
+			System.err.println("No input partition in the time range "+range);
+			System.exit(1);
+		}
+		Path output = new Path(otherArgs.get(1));
+		FileOutputFormat.setOutputPath(job, output);
+
+		//the job is skipped if the result of the same input files and parameters is in the cache
+		ResultCache cache = new ResultCache(job.getConfiguration());
+		String key = cache.fingerprint(TopFavouriteProducts.class, "result", inputs)
+				.add(TOP_K_KEY, job.getConfiguration().getInt(TOP_K_KEY, TOP_K))
+				.add("range", range)
+				.add(IndexedResultOutputFormat.ENABLED, job.getConfiguration().getBoolean(IndexedResultOutputFormat.ENABLED, false))
+				.getKey();
+		int flag;
+		if(cache.restore(key, output)){
+			System.out.println("#Result found in cache: "+key);
+			flag = 0;
+		}
+		else{
+			flag = job.waitForCompletion(true) ? 0 : 1;
+			if(flag==0)
+				cache.save(key, output);
+		}
 		long end=System.currentTimeMillis();
 		System.out.println("#Execution time in seconds : "+ (end-start)/1000.0);
 
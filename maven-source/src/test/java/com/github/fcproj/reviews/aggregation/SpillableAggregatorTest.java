@@ -0,0 +1,132 @@
+package com.github.fcproj.reviews.aggregation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * SpillableAggregator gives the same aggregates whether or not it spills
+ *
+ * @author fabrizio
+ *
+ */
+public class SpillableAggregatorTest extends TestCase {
+
+	private static final int KEYS = 200;
+	private static final int ROUNDS = 3;
+
+	private File spillDir;
+
+	@Override
+	protected void setUp() throws IOException {
+		spillDir = File.createTempFile("spill-", "");
+		spillDir.delete();
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = spillDir.listFiles();
+		if(files!=null)
+			for(File f: files)
+				f.delete();
+		spillDir.delete();
+	}
+
+	//every key in each round, so that every run holds only a part of the aggregate of a key
+	private void fill(SpillableAggregator aggregator) throws IOException {
+		for(int round=0; round<ROUNDS; round++)
+			for(int i=0; i<KEYS; i++)
+				aggregator.add(key(i), round+1);
+	}
+
+	private static String key(int i){
+		return String.format("2012-%02d\tP%03d", i%12+1, i);
+	}
+
+	private void check(SpillableAggregator aggregator) throws IOException {
+		AggregateCursor cursor = aggregator.cursor();
+		try {
+			String previous = null;
+			int keys = 0;
+			while(cursor.next()){
+				if(previous!=null)
+					assertTrue(previous+" before "+cursor.getKey(), previous.compareTo(cursor.getKey())<0);
+				previous = cursor.getKey();
+				assertEquals(ROUNDS, cursor.getCounter());
+				assertEquals(ROUNDS*(ROUNDS+1)/2.0, cursor.getSum(), 0.0);
+				keys++;
+			}
+			assertEquals(KEYS, keys);
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public void testInMemory() throws IOException {
+		SpillableAggregator aggregator = new SpillableAggregator(64L*1024*1024, spillDir);
+		try {
+			fill(aggregator);
+			assertEquals(0, aggregator.getSpills());
+			check(aggregator);
+		}
+		finally {
+			aggregator.close();
+		}
+	}
+
+	public void testMultiLevelMerge() throws IOException {
+		//a single key fits in the table: a run for each new key
+		SpillableAggregator aggregator = new SpillableAggregator(1, spillDir);
+		try {
+			fill(aggregator);
+			assertTrue(aggregator.getSpills()>SpillableAggregator.MERGE_FACTOR);
+			check(aggregator);
+		}
+		finally {
+			aggregator.close();
+		}
+		String[] left = spillDir.list();
+		assertTrue(left==null || left.length==0);
+	}
+
+	//open file descriptors of this process, -1 where /proc is not available
+	private static int openFiles(){
+		String[] fds = new File("/proc/self/fd").list();
+		return fds==null ? -1 : fds.length;
+	}
+
+	public void testTruncatedRun() throws IOException {
+		SpillableAggregator aggregator = new SpillableAggregator(1, spillDir);
+		try {
+			fill(aggregator);
+			//every run ends in the middle of its first key
+			for(File run: spillDir.listFiles()){
+				RandomAccessFile raf = new RandomAccessFile(run, "rw");
+				try {
+					raf.setLength(6);
+				}
+				finally {
+					raf.close();
+				}
+			}
+			int before = openFiles();
+			try {
+				aggregator.cursor();
+				fail("Truncated run accepted");
+			}
+			catch(IOException expected){
+			}
+			//the runs opened for the merge are closed
+			assertEquals(before, openFiles());
+		}
+		finally {
+			aggregator.close();
+		}
+		String[] left = spillDir.list();
+		assertTrue(left==null || left.length==0);
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.github.fcproj.reviews.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * Fingerprint is the same for the same job, inputs and parameters, and changes when any of them changes
+ *
+ * @author fabrizio
+ *
+ */
+public class FingerprintTest extends TestCase {
+
+	private File dir;
+	private FileSystem fs;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("fingerprint-", "");
+		dir.delete();
+		dir.mkdirs();
+		fs = FileSystem.getLocal(new Configuration());
+		write("a.csv", "1\t2\n");
+		write("b.csv", "3\t4\n");
+	}
+
+	@Override
+	protected void tearDown() {
+		for(File f: dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		file.setLastModified(1000000000000L);
+		return file;
+	}
+
+	private List<Path> inputs() {
+		return Arrays.asList(new Path(dir.getAbsolutePath()));
+	}
+
+	private String key(String stage, int topK) throws IOException {
+		return new Fingerprint(FingerprintTest.class, stage)
+				.addInputs(fs, inputs(), false)
+				.add("reviews.top.k", topK)
+				.getKey();
+	}
+
+	public void testStable() throws IOException {
+		String key = key("result", 10);
+		assertEquals(40, key.length());
+		assertEquals(key, key("result", 10));
+		//getKey does not reset the digest
+		Fingerprint fingerprint = new Fingerprint(FingerprintTest.class, "result").addInputs(fs, inputs(), false);
+		fingerprint.getKey();
+		assertEquals(key, fingerprint.add("reviews.top.k", 10).getKey());
+	}
+
+	public void testParameters() throws IOException {
+		String key = key("result", 10);
+		assertFalse(key.equals(key("result", 5)));
+		assertFalse(key.equals(key("pass-1", 10)));
+		assertFalse(key.equals(new Fingerprint(Fingerprint.class, "result").addInputs(fs, inputs(), false).add("reviews.top.k", 10).getKey()));
+		//a parameter is its name and its value
+		assertFalse(new Fingerprint(FingerprintTest.class, "result").add("a", 1).getKey()
+				.equals(new Fingerprint(FingerprintTest.class, "result").add("b", 1).getKey()));
+		assertFalse(new Fingerprint(FingerprintTest.class, "result").add("range", null).getKey()
+				.equals(new Fingerprint(FingerprintTest.class, "result").getKey()));
+	}
+
+	public void testInputs() throws IOException {
+		String key = key("result", 10);
+		//content of the same length, modification time changed
+		write("a.csv", "5\t6\n").setLastModified(2000000000000L);
+		assertFalse(key.equals(key("result", 10)));
+		//back to the same modification time, different length
+		write("a.csv", "1\t2\t3\n");
+		assertFalse(key.equals(key("result", 10)));
+		write("a.csv", "1\t2\n");
+		assertEquals(key, key("result", 10));
+		//a new file
+		write("c.csv", "7\t8\n");
+		assertFalse(key.equals(key("result", 10)));
+		new File(dir, "c.csv").delete();
+		assertEquals(key, key("result", 10));
+	}
+
+	public void testHiddenFilesAndOrder() throws IOException {
+		String key = key("result", 10);
+		//not read by FileInputFormat
+		write("_SUCCESS", "");
+		write(".a.csv.crc", "x");
+		assertEquals(key, key("result", 10));
+		//files listed one by one, in any order, are the files of the directory
+		List<Path> files = Arrays.asList(new Path(new File(dir, "b.csv").getAbsolutePath()), new Path(new File(dir, "a.csv").getAbsolutePath()));
+		assertEquals(key, new Fingerprint(FingerprintTest.class, "result").addInputs(fs, files, false).add("reviews.top.k", 10).getKey());
+	}
+
+}
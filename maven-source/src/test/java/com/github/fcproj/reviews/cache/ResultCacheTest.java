@@ -0,0 +1,119 @@
+package com.github.fcproj.reviews.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * ResultCache on the local file system: hits, misses, leases and eviction
+ *
+ * @author fabrizio
+ *
+ */
+public class ResultCacheTest extends TestCase {
+
+	private static final String KEY = "0123456789abcdef0123456789abcdef01234567";
+
+	private File root;
+	private File cacheDir;
+	private File output;
+
+	@Override
+	protected void setUp() throws IOException {
+		root = File.createTempFile("cache-", "");
+		root.delete();
+		root.mkdirs();
+		cacheDir = new File(root, "cache");
+		output = new File(root, "output");
+		output.mkdirs();
+		FileOutputStream out = new FileOutputStream(new File(output, "part-r-00000"));
+		try {
+			out.write("2011-05\tP1\t5.0\n".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() {
+		FileUtil.fullyDelete(root);
+	}
+
+	private ResultCache cache(int maxMB, int leaseHours) throws IOException {
+		Configuration conf = new Configuration();
+		conf.set(ResultCache.DIR, cacheDir.getAbsolutePath());
+		conf.setInt(ResultCache.MAX_MB, maxMB);
+		conf.setInt(ResultCache.LEASE_HOURS, leaseHours);
+		return new ResultCache(conf);
+	}
+
+	private Path path(File file) {
+		return new Path(file.getAbsolutePath());
+	}
+
+	private int leases() {
+		int n = 0;
+		String[] names = cacheDir.list();
+		if(names!=null)
+			for(String name: names)
+				if(name.startsWith("lease-"))
+					n++;
+		return n;
+	}
+
+	public void testMiss() throws IOException {
+		ResultCache cache = cache(1024, 24);
+		assertNull(cache.lookup(KEY));
+		assertFalse(cache.restore(KEY, path(new File(root, "restored"))));
+		//the lease taken before the check is released
+		assertEquals(0, leases());
+		assertFalse(new File(root, "restored").exists());
+	}
+
+	public void testSaveAndRestore() throws IOException {
+		cache(1024, 24).save(KEY, path(output));
+		assertEquals(0, leases());
+		File restored = new File(root, "restored");
+		ResultCache cache = cache(1024, 24);
+		assertTrue(cache.restore(KEY, path(restored)));
+		assertEquals(new File(output, "part-r-00000").length(), new File(restored, "part-r-00000").length());
+		assertEquals(0, leases());
+		try {
+			cache.restore(KEY, path(restored));
+			fail("Existing output overwritten");
+		}
+		catch(IOException expected){
+		}
+	}
+
+	public void testLeasedEntryNotEvicted() throws IOException {
+		cache(1024, 24).save(KEY, path(output));
+		ResultCache reader = cache(1024, 24);
+		assertNotNull(reader.lookup(KEY));
+		assertEquals(1, leases());
+		//another run over its budget
+		cache(0, 24).evict();
+		assertTrue(new File(cacheDir, KEY).exists());
+		reader.release();
+		cache(0, 24).evict();
+		assertFalse(new File(cacheDir, KEY).exists());
+	}
+
+	public void testExpiredLease() throws IOException, InterruptedException {
+		cache(1024, 24).save(KEY, path(output));
+		assertNotNull(cache(1024, 24).lookup(KEY));
+		Thread.sleep(10);
+		//with no expiration time, the lease is taken for the lease of a dead run
+		cache(0, 0).evict();
+		assertEquals(0, leases());
+		assertFalse(new File(cacheDir, KEY).exists());
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.github.fcproj.reviews.cube;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+
+import com.github.fcproj.reviews.partition.TimeRange;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trip of the cube files: MonthlySeries written with CubeOutputFormat and loaded by MonthlyCube
+ * answer every range as the sums of the reviews
+ *
+ * @author fabrizio
+ *
+ */
+public class MonthlyCubeTest extends TestCase {
+
+	private static final int KEYS = 12;
+	private static final int FIRST_MONTH = 1999*12;
+	private static final int MONTHS = 14*12;
+
+	private File dir;
+	//reviews of each key: month and score
+	private final Map<String, List<int[]>> reviews = new TreeMap<String, List<int[]>>();
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("cube-", "");
+		dir.delete();
+		dir.mkdirs();
+		Random random = new Random(42);
+		for(int k=0; k<KEYS; k++){
+			List<int[]> list = new ArrayList<int[]>();
+			int n = 1+random.nextInt(200);
+			for(int i=0; i<n; i++){
+				//a few months per key, with long gaps between them
+				int month = FIRST_MONTH + (k%3==0 ? random.nextInt(4)*50 : random.nextInt(MONTHS));
+				list.add(new int[]{month, 1+random.nextInt(MonthCellWritable.SCORES)});
+			}
+			reviews.put(String.format("P%02d", k), list);
+		}
+		//two reducers, each with sorted keys
+		List<String> keys = new ArrayList<String>(reviews.keySet());
+		write(new File(dir, "part-r-00000"+CubeOutputFormat.EXTENSION), keys.subList(0, KEYS/2));
+		write(new File(dir, "part-r-00001"+CubeOutputFormat.EXTENSION), keys.subList(KEYS/2, KEYS));
+	}
+
+	@Override
+	protected void tearDown() {
+		for(File f: dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	//as BuildCube: the cells of the key, merged by month, then the series
+	private void write(File file, List<String> keys) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		CubeOutputFormat.writeHeader(out, BuildCube.PRODUCT);
+		CubeOutputFormat.CubeRecordWriter writer = new CubeOutputFormat.CubeRecordWriter(out);
+		MonthCellWritable single = new MonthCellWritable();
+		for(String key: keys){
+			TreeMap<Integer, MonthCellWritable> month2cell = new TreeMap<Integer, MonthCellWritable>();
+			for(int[] review: reviews.get(key)){
+				single.set(review[0], review[1]);
+				MonthCellWritable cell = month2cell.get(review[0]);
+				if(cell==null)
+					month2cell.put(review[0], new MonthCellWritable(single));
+				else
+					cell.add(single);
+			}
+			writer.write(new Text(key), new MonthlySeries(month2cell.values()));
+		}
+		writer.close(null);
+	}
+
+	//sums of the reviews of key in [from, to]
+	private long[] bruteForce(String key, int from, int to){
+		long[] values = new long[2+MonthCellWritable.SCORES];
+		for(int[] review: reviews.get(key)){
+			if(review[0]<from || review[0]>to)
+				continue;
+			values[0]++;
+			values[1] += review[1];
+			values[1+review[1]]++;
+		}
+		return values;
+	}
+
+	private static void assertAggregate(String message, long[] expected, Aggregate actual){
+		assertEquals(message, expected[0], actual.getCounter());
+		assertEquals(message, expected[1], actual.getSum());
+		for(int score=1; score<=MonthCellWritable.SCORES; score++)
+			assertEquals(message, expected[1+score], actual.getHistogram(score));
+	}
+
+	private static TimeRange range(int from, int to){
+		return new TimeRange(from==Integer.MIN_VALUE ? null : TimeRange.formatMonth(from), to==Integer.MAX_VALUE ? null : TimeRange.formatMonth(to));
+	}
+
+	public void testAggregate() throws IOException {
+		MonthlyCube cube = new MonthlyCube(dir);
+		assertEquals(KEYS, cube.size());
+		assertEquals(BuildCube.PRODUCT, cube.getDimension());
+		Random random = new Random(7);
+		List<int[]> ranges = new ArrayList<int[]>();
+		ranges.add(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE});//open
+		ranges.add(new int[]{FIRST_MONTH+30, Integer.MAX_VALUE});//open on the right
+		ranges.add(new int[]{Integer.MIN_VALUE, FIRST_MONTH+30});//open on the left
+		ranges.add(new int[]{FIRST_MONTH-24, FIRST_MONTH-1});//before every review
+		ranges.add(new int[]{FIRST_MONTH+MONTHS, FIRST_MONTH+MONTHS+12});//after every review
+		ranges.add(new int[]{FIRST_MONTH+51, FIRST_MONTH+99});//between months of the keys with gaps
+		for(int i=0; i<200; i++){
+			int from = FIRST_MONTH+random.nextInt(MONTHS);
+			ranges.add(new int[]{from, from+random.nextInt(24)});//closed, also a single month
+		}
+		for(int[] r: ranges){
+			TimeRange range = range(r[0], r[1]);
+			for(String key: reviews.keySet())
+				assertAggregate(key+" "+range, bruteForce(key, r[0], r[1]), cube.aggregate(key, range));
+		}
+		assertNull(cube.aggregate("P99", TimeRange.all()));
+	}
+
+	public void testEmptySeries() {
+		//the empty series, as for a key with no score
+		MonthlySeries empty = new MonthlySeries(new ArrayList<MonthCellWritable>());
+		assertEquals(0, empty.size());
+		assertEquals(0, empty.aggregate("P00", Integer.MIN_VALUE, Integer.MAX_VALUE).getCounter());
+		assertTrue(Double.isNaN(empty.aggregate("P00", Integer.MIN_VALUE, Integer.MAX_VALUE).getMean()));
+	}
+
+	public void testRolling() throws IOException {
+		MonthlyCube cube = new MonthlyCube(dir);
+		int from = FIRST_MONTH+12;
+		int to = FIRST_MONTH+60;
+		for(String key: reviews.keySet()){
+			for(Aggregate aggregate: cube.rolling(key, range(from, to), 3)){
+				int month = aggregate.getToMonth();
+				assertTrue(month>=from && month<=to);
+				assertEquals(month-2, aggregate.getFromMonth());
+				assertAggregate(key+" "+month, bruteForce(key, month-2, month), aggregate);
+			}
+		}
+		assertTrue(cube.rolling("P99", TimeRange.all(), 3).isEmpty());
+	}
+
+	public void testTop() throws IOException {
+		MonthlyCube cube = new MonthlyCube(dir);
+		int from = FIRST_MONTH+24;
+		int to = FIRST_MONTH+120;
+		List<Aggregate> top = cube.top(range(from, to), 5, 20);
+		assertEquals(5, top.size());
+		//every key with enough reviews and a higher average is in the top
+		for(String key: reviews.keySet()){
+			long[] values = bruteForce(key, from, to);
+			if(values[0]<20)
+				continue;
+			double mean = (double)values[1]/values[0];
+			boolean in = false;
+			for(Aggregate aggregate: top)
+				in |= aggregate.getKey().equals(key);
+			if(!in)
+				assertTrue(key, top.size()==5 && mean<=top.get(4).getMean());
+		}
+		for(int i=1; i<top.size(); i++)
+			assertTrue(top.get(i-1).getMean()>=top.get(i).getMean());
+	}
+
+	public void testNoCubeFile() throws IOException {
+		File empty = new File(dir, "empty");
+		empty.mkdirs();
+		try {
+			new MonthlyCube(empty);
+			fail("Empty directory accepted");
+		}
+		catch(IOException expected){
+		}
+		finally {
+			empty.delete();
+		}
+		File text = new File(dir, "part-r-00002"+CubeOutputFormat.EXTENSION);
+		FileOutputStream out = new FileOutputStream(text);
+		try {
+			out.write("P00\t2011-05\t5.0\n".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		try {
+			new MonthlyCube(dir);
+			fail("Not a cube file accepted");
+		}
+		catch(IOException expected){
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.github.fcproj.reviews.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+/**
+ * Parsing and bounds of TimeRange: both bounds are included, a month bound counts as its whole month
+ *
+ * @author fabrizio
+ *
+ */
+public class TimeRangeTest extends TestCase {
+
+	//Unix time of a local time, as the TIME column is read
+	private static long seconds(int year, int month, int day, int hour, int minute, int second){
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month-1, day, hour, minute, second);
+		return calendar.getTimeInMillis()/1000;
+	}
+
+	public void testMonthBounds() {
+		TimeRange range = new TimeRange("2011-05", "2011-06");
+		assertTrue(range.isBounded());
+		assertFalse(range.contains(seconds(2011, 4, 30, 23, 59, 59)));
+		assertTrue(range.contains(seconds(2011, 5, 1, 0, 0, 0)));
+		assertTrue(range.contains(seconds(2011, 6, 30, 23, 59, 59)));
+		assertFalse(range.contains(seconds(2011, 7, 1, 0, 0, 0)));
+		assertFalse(range.containsMonth(2011, 4));
+		assertTrue(range.containsMonth(2011, 5));
+		assertTrue(range.containsMonth(2011, 6));
+		assertFalse(range.containsMonth(2011, 7));
+		assertEquals("2011-05", TimeRange.formatMonth(range.getFromMonth()));
+		assertEquals("2011-06", TimeRange.formatMonth(range.getToMonth()));
+	}
+
+	public void testDayBounds() {
+		TimeRange range = new TimeRange("2011-05-10", "2011-05-10");
+		assertFalse(range.contains(seconds(2011, 5, 9, 23, 59, 59)));
+		assertTrue(range.contains(seconds(2011, 5, 10, 0, 0, 0)));
+		assertTrue(range.contains(seconds(2011, 5, 10, 23, 59, 59)));
+		assertFalse(range.contains(seconds(2011, 5, 11, 0, 0, 0)));
+		//the month of a day bound overlaps the range
+		assertTrue(range.containsMonth(2011, 5));
+		assertFalse(range.containsMonth(2011, 6));
+		assertTrue(range.overlaps(seconds(2011, 5, 1, 0, 0, 0), seconds(2011, 5, 10, 0, 0, 0)));
+		assertFalse(range.overlaps(seconds(2011, 5, 11, 0, 0, 0), seconds(2011, 5, 31, 0, 0, 0)));
+	}
+
+	public void testMixedAndOpenBounds() {
+		TimeRange range = new TimeRange("2011-05-31", "2011-06");
+		assertFalse(range.contains(seconds(2011, 5, 30, 12, 0, 0)));
+		assertTrue(range.contains(seconds(2011, 5, 31, 12, 0, 0)));
+		assertTrue(range.contains(seconds(2011, 6, 30, 12, 0, 0)));
+
+		TimeRange from = new TimeRange("2011-05", null);
+		assertTrue(from.contains(seconds(2030, 1, 1, 0, 0, 0)));
+		assertFalse(from.contains(seconds(2011, 4, 30, 0, 0, 0)));
+		assertEquals(Integer.MAX_VALUE, from.getToMonth());
+
+		TimeRange all = TimeRange.all();
+		assertFalse(all.isBounded());
+		assertTrue(all.contains(0));
+		assertTrue(all.containsMonth(1999, 1));
+		assertEquals(Integer.MIN_VALUE, all.getFromMonth());
+	}
+
+	public void testMalformed() {
+		for(String bound: new String[]{"2011-5", "2011-13", "2011-02-30", "201105", "2011-05-1", "May 2011"}){
+			try {
+				new TimeRange(bound, null);
+				fail("Malformed bound accepted: "+bound);
+			}
+			catch(IllegalArgumentException expected){
+			}
+		}
+		try {
+			new TimeRange("2011-06", "2011-05-31");
+			fail("Empty range accepted");
+		}
+		catch(IllegalArgumentException expected){
+		}
+	}
+
+	public void testParseArguments() {
+		List<String> args = new ArrayList<String>(Arrays.asList("--from", "2011-05", "in", "--to", "2011-06-15", "out"));
+		TimeRange range = TimeRange.parse(args);
+		assertEquals(Arrays.asList("in", "out"), args);
+		assertEquals("2011-05..2011-06-15", range.toString());
+
+		args = new ArrayList<String>(Arrays.asList("in", "out"));
+		assertFalse(TimeRange.parse(args).isBounded());
+		assertEquals(2, args.size());
+
+		try {
+			TimeRange.parse(new ArrayList<String>(Arrays.asList("in", "out", "--to")));
+			fail("Missing value accepted");
+		}
+		catch(IllegalArgumentException expected){
+		}
+	}
+
+	public void testConfiguration() {
+		Configuration conf = new Configuration(false);
+		new TimeRange("2011-05", "2011-06-15").set(conf);
+		TimeRange range = TimeRange.get(conf);
+		assertEquals("2011-05..2011-06-15", range.toString());
+		assertTrue(range.contains(seconds(2011, 6, 15, 23, 0, 0)));
+		assertFalse(range.contains(seconds(2011, 6, 16, 0, 0, 0)));
+		TimeRange.all().set(conf);
+		assertFalse(TimeRange.get(conf).isBounded());
+	}
+
+	public void testMonthOf() {
+		long time = seconds(2011, 12, 31, 23, 59, 59);
+		assertEquals("2011-12", TimeRange.monthOf(time));
+		assertEquals("2011-12", TimeRange.formatMonth(TimeRange.monthIndexOf(time)));
+		assertEquals(TimeRange.monthIndexOf(time)+1, TimeRange.monthIndexOf(time+1));
+	}
+
+}
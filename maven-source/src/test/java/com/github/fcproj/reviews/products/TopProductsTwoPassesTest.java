@@ -0,0 +1,105 @@
+package com.github.fcproj.reviews.products;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.github.fcproj.reviews.products.TopProductsTwoPasses.ProductMean;
+
+/**
+ * Pass 2 of TopProductsTwoPasses: the merge of the local top N of pass 1 is the global top N
+ *
+ * @author fabrizio
+ *
+ */
+public class TopProductsTwoPassesTest extends TestCase {
+
+	private static final int PRODUCTS = 500;
+	private static final int REDUCERS = 4;
+
+	//pass 1 with REDUCERS reducers (products partitioned by hash, as HashPartitioner), then pass 2
+	private static List<ProductMean> twoPasses(List<ProductMean> products, int n, int minReviews){
+		List<TopProductsTwoPasses.TopN> pass1 = new ArrayList<TopProductsTwoPasses.TopN>();
+		for(int r=0; r<REDUCERS; r++)
+			pass1.add(new TopProductsTwoPasses.TopN(n, minReviews));
+		for(ProductMean product: products)
+			pass1.get((product.productID.hashCode() & Integer.MAX_VALUE) % REDUCERS).add(product.productID, product.sum, product.counter);
+		TopProductsTwoPasses.TopN pass2 = new TopProductsTwoPasses.TopN(n, minReviews);
+		for(TopProductsTwoPasses.TopN local: pass1){
+			assertTrue(local.products().size()<=n);
+			for(ProductMean product: local.products())
+				pass2.add(product.productID, product.sum, product.counter);
+		}
+		return new ArrayList<ProductMean>(pass2.products());
+	}
+
+	//every product sorted, then the first n
+	private static List<ProductMean> bruteForce(List<ProductMean> products, int n, int minReviews){
+		List<ProductMean> sorted = new ArrayList<ProductMean>();
+		for(ProductMean product: products)
+			if(product.counter>=minReviews)
+				sorted.add(product);
+		Collections.sort(sorted);
+		return sorted.subList(0, Math.min(n, sorted.size()));
+	}
+
+	private static void assertSameProducts(List<ProductMean> expected, List<ProductMean> actual){
+		assertEquals(expected.size(), actual.size());
+		for(int i=0; i<expected.size(); i++){
+			assertEquals(expected.get(i).productID, actual.get(i).productID);
+			assertEquals(expected.get(i).sum, actual.get(i).sum);
+			assertEquals(expected.get(i).counter, actual.get(i).counter);
+		}
+	}
+
+	private static List<ProductMean> randomProducts(long seed){
+		Random random = new Random(seed);
+		List<ProductMean> products = new ArrayList<ProductMean>();
+		for(int i=0; i<PRODUCTS; i++){
+			int counter = 1+random.nextInt(30);
+			long sum = 0;
+			for(int j=0; j<counter; j++)
+				sum += 1+random.nextInt(5);
+			products.add(new ProductMean(String.format("B%05d", i), sum, counter));
+		}
+		return products;
+	}
+
+	public void testGlobalTopN() {
+		for(long seed=0; seed<5; seed++){
+			List<ProductMean> products = randomProducts(seed);
+			assertSameProducts(bruteForce(products, 10, 10), twoPasses(products, 10, 10));
+			assertSameProducts(bruteForce(products, 3, 1), twoPasses(products, 3, 1));
+			assertSameProducts(bruteForce(products, 50, 20), twoPasses(products, 50, 20));
+		}
+	}
+
+	public void testTiesByProductID() {
+		List<ProductMean> products = new ArrayList<ProductMean>();
+		//the same average, with different numbers of reviews
+		for(int i=0; i<20; i++)
+			products.add(new ProductMean("P"+(char)('a'+i), 45*(i+1), 10*(i+1)));
+		products.add(new ProductMean("Z", 50, 10));
+		List<ProductMean> top = twoPasses(products, 4, 10);
+		assertEquals("Z", top.get(0).productID);
+		assertEquals("Pa", top.get(1).productID);
+		assertEquals("Pb", top.get(2).productID);
+		assertEquals("Pc", top.get(3).productID);
+	}
+
+	public void testMinReviews() {
+		List<ProductMean> products = new ArrayList<ProductMean>();
+		products.add(new ProductMean("P1", 5, 1));//highest average, too few reviews
+		products.add(new ProductMean("P2", 40, 10));
+		products.add(new ProductMean("P3", 30, 10));
+		List<ProductMean> top = twoPasses(products, 10, 10);
+		assertEquals(2, top.size());
+		assertEquals("P2", top.get(0).productID);
+		assertEquals(4.0, top.get(0).mean, 0.0);
+		assertTrue(twoPasses(products, 10, 11).isEmpty());
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.github.fcproj.reviews.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trip of IndexedResultWriter and IndexedResultReader
+ *
+ * @author fabrizio
+ *
+ */
+public class IndexedResultStoreTest extends TestCase {
+
+	private static final int DUPLICATES = 50;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("indexed-", IndexedResultOutputFormat.EXTENSION);
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	//tiny blocks, so that the duplicates of "b" span several blocks
+	private void write(int blockSize) throws IOException {
+		IndexedResultWriter writer = new IndexedResultWriter(new FileOutputStream(file), blockSize);
+		try {
+			writer.append("a", "first");
+			for(int i=0; i<DUPLICATES; i++)
+				writer.append("b", "value"+i);
+			writer.append("ba", "prefixed");
+			writer.append("d", "between");
+			writer.append("f", "last");
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	public void testDuplicatesSpanningBlocks() throws IOException {
+		write(32);
+		IndexedResultReader reader = new IndexedResultReader(file);
+		try {
+			assertEquals(DUPLICATES+4, reader.getRecords());
+			List<String> values = reader.get("b");
+			assertEquals(DUPLICATES, values.size());
+			for(int i=0; i<DUPLICATES; i++)
+				assertEquals("value"+i, values.get(i));
+			assertEquals("first", reader.get("a").get(0));
+			assertEquals("prefixed", reader.get("ba").get(0));
+			assertEquals("last", reader.get("f").get(0));
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	public void testPrefix() throws IOException {
+		write(32);
+		IndexedResultReader reader = new IndexedResultReader(file);
+		try {
+			List<IndexedResultReader.Entry> entries = reader.prefix("b");
+			assertEquals(DUPLICATES+1, entries.size());
+			assertEquals("ba", entries.get(DUPLICATES).getKey());
+			assertEquals(DUPLICATES+4, reader.prefix("").size());
+			assertTrue(reader.prefix("c").isEmpty());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	public void testMissingKeys() throws IOException {
+		write(32);
+		IndexedResultReader reader = new IndexedResultReader(file);
+		try {
+			assertTrue(reader.get("0").isEmpty());//below
+			assertTrue(reader.get("c").isEmpty());//between
+			assertTrue(reader.get("bb").isEmpty());//between, after the duplicates
+			assertTrue(reader.get("z").isEmpty());//above
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	//keys of UserAffinityTwoPasses, user1 \t user2 with user1<user2
+	public void testCouples() throws IOException {
+		IndexedResultWriter writer = new IndexedResultWriter(new FileOutputStream(file), 32);
+		try {
+			writer.append("A0\tA1B2", "P1\tP2\tP3");
+			writer.append("A1B2\tA1C3", "P1\tP2\tP3");
+			writer.append("A1B2\tA9", "P4\tP5\tP6");
+			writer.append("A1B2X\tA1C3", "P1\tP2\tP3");
+			writer.append("A1C3\tA9", "P1\tP2\tP3");
+		}
+		finally {
+			writer.close();
+		}
+		IndexedResultSet set = new IndexedResultSet(file);
+		try {
+			List<IndexedResultReader.Entry> couples = set.couples("A1B2");
+			assertEquals(2, couples.size());
+			assertEquals("A1B2\tA1C3", couples.get(0).getKey());
+			assertEquals("A1B2\tA9", couples.get(1).getKey());
+			assertEquals("P4\tP5\tP6", couples.get(1).getValue());
+			//without the tab, the prefix also matches a longer ID
+			assertEquals(3, set.prefix("A1B2").size());
+			//partners with a smaller ID are in their own couples
+			assertEquals("A0\tA1B2", set.couples("A0").get(0).getKey());
+			assertTrue(set.couples("A9").isEmpty());
+		}
+		finally {
+			set.close();
+		}
+	}
+
+	public void testEmptyFile() throws IOException {
+		new IndexedResultWriter(new FileOutputStream(file)).close();
+		IndexedResultReader reader = new IndexedResultReader(file);
+		try {
+			assertEquals(0, reader.getRecords());
+			assertTrue(reader.get("a").isEmpty());
+			assertTrue(reader.prefix("").isEmpty());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	public void testUnsortedKeys() throws IOException {
+		IndexedResultWriter writer = new IndexedResultWriter(new FileOutputStream(file));
+		try {
+			writer.append("b", "1");
+			writer.append("a", "2");
+			fail("Unsorted keys accepted");
+		}
+		catch(IOException expected){
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.github.fcproj.reviews.streaming;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+
+import junit.framework.TestCase;
+
+/**
+ * StreamingState recovered from a snapshot has the same results and the same progress of its sources
+ *
+ * @author fabrizio
+ *
+ */
+public class StreamingStateTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("streaming-", ".snapshot");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+		new File(file.getPath()+".tmp").delete();
+	}
+
+	//a row of the Amazon Fine Food Review CSV, reviewed on the 15th of the month
+	private static String row(String prodID, String userID, int score, int year, int month){
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month-1, 15);
+		return "1\t"+prodID+"\t"+userID+"\tname\t0\t0\t"+score+"\t"+calendar.getTimeInMillis()/1000+"\tsummary\ttext";
+	}
+
+	//the rows of a file, read up to offset after each row
+	private static void apply(StreamingState state, String source, String[] rows, int from, int to){
+		long offset = 0;
+		for(int i=0; i<to; i++){
+			offset += rows[i].length()+1;
+			if(i>=from)
+				assertTrue(rows[i], state.apply(rows[i], source, offset));
+		}
+	}
+
+	private static final String[] ROWS = {
+		row("P1", "U1", 5, 2011, 5),
+		row("P2", "U1", 3, 2011, 5),
+		row("P1", "U2", 4, 2011, 5),
+		row("P3", "U2", 5, 2011, 6),
+		row("P2", "U3", 5, 2011, 6),
+		row("P2", "U1", 1, 2011, 6),
+	};
+
+	private static void assertSameResults(StreamingState expected, StreamingState actual){
+		assertEquals(expected.getMonths(), actual.getMonths());
+		for(String month: expected.getMonths())
+			assertEquals(month, expected.topOfMonth(month), actual.topOfMonth(month));
+		for(String user: new String[]{"U1", "U2", "U3", "U4"})
+			assertEquals(user, expected.topOfUser(user), actual.topOfUser(user));
+	}
+
+	public void testSnapshotAndRecover() throws IOException {
+		StreamingState state = new StreamingState(5, 10);
+		apply(state, "a.csv", ROWS, 0, 4);
+		apply(state, "b.csv", ROWS, 4, 6);
+		assertFalse(state.apply("malformed", "socket", 7));
+		state.snapshot(file);
+		assertFalse(new File(file.getPath()+".tmp").exists());
+
+		StreamingState recovered = new StreamingState(5, 10);
+		recovered.recover(file);
+		assertSameResults(state, recovered);
+		assertEquals(state.getProgress("a.csv"), recovered.getProgress("a.csv"));
+		assertEquals(state.getProgress("b.csv"), recovered.getProgress("b.csv"));
+		assertEquals(7, recovered.getProgress("socket"));
+		assertEquals(0, recovered.getProgress("c.csv"));
+		assertEquals("2011-05\t2011-06", recovered.getMonths().get(0)+"\t"+recovered.getMonths().get(1));
+		assertEquals("P1", recovered.topOfMonth("2011-05").get(0).getProductID().toString());
+		assertEquals(4.5, recovered.topOfMonth("2011-05").get(0).getScore().get(), 1e-9);
+	}
+
+	public void testRestartFromOffset() throws IOException {
+		//a run that stops after 3 rows and restarts from its snapshot
+		StreamingState first = new StreamingState(5, 10);
+		apply(first, "a.csv", ROWS, 0, 3);
+		first.snapshot(file);
+		StreamingState restarted = new StreamingState(5, 10);
+		restarted.recover(file);
+		long offset = restarted.getProgress("a.csv");
+		int next = 0;
+		for(long read = 0; read<offset; next++)
+			read += ROWS[next].length()+1;
+		assertEquals(3, next);
+		apply(restarted, "a.csv", ROWS, next, ROWS.length);
+
+		//the same as a run that never stopped: no row is counted twice or lost
+		StreamingState uninterrupted = new StreamingState(5, 10);
+		apply(uninterrupted, "a.csv", ROWS, 0, ROWS.length);
+		assertSameResults(uninterrupted, restarted);
+		assertEquals(uninterrupted.getProgress("a.csv"), restarted.getProgress("a.csv"));
+	}
+
+	public void testSnapshotReplaced() throws IOException {
+		StreamingState state = new StreamingState(5, 10);
+		apply(state, "a.csv", ROWS, 0, 2);
+		state.snapshot(file);
+		apply(state, "a.csv", ROWS, 2, ROWS.length);
+		state.snapshot(file);
+		StreamingState recovered = new StreamingState(5, 10);
+		recovered.recover(file);
+		assertSameResults(state, recovered);
+	}
+
+	public void testNotASnapshot() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("2011-05\tP1\t5.0\n".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		try {
+			new StreamingState(5, 10).recover(file);
+			fail("Not a snapshot accepted");
+		}
+		catch(IOException expected){
+		}
+	}
+
+}